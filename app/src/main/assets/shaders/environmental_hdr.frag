@@ -51,6 +51,10 @@ const int kNumberOfRoughnessLevels = NUMBER_OF_MIPMAP_LEVELS;
 // The albedo and roughness/metallic textures.
 uniform sampler2D u_AlbedoTexture;
 uniform sampler2D u_RoughnessMetallicAmbientOcclusionTexture;
+#ifdef USE_INSTANCING
+// Used instead of u_AlbedoTexture by instances whose selector is 1.
+uniform sampler2D u_AlternateAlbedoTexture;
+#endif
 
 // The intensity of the main directional light.
 uniform vec3 u_LightIntensity;
@@ -111,6 +115,9 @@ struct ShadingParameters {
 in vec3 v_ViewPosition;
 in vec3 v_ViewNormal;
 in vec2 v_TexCoord;
+#ifdef USE_INSTANCING
+in float v_AlbedoSelector;
+#endif
 
 layout(location = 0) out vec4 o_FragColor;
 
@@ -216,13 +223,12 @@ void Pbr_CreateShadingParameters(const in vec3 viewNormal,
 }
 
 void Pbr_CreateMaterialParameters(const in vec2 texCoord,
-                                  const in sampler2D albedoTexture,
+                                  const in vec3 albedo,
                                   const in sampler2D pbrTexture,
                                   const in sampler2D dfgTexture,
                                   const in ShadingParameters shading,
                                   out MaterialParameters material) {
   // Read the material parameters from the textures
-  vec3 albedo = texture(albedoTexture, texCoord).rgb;
   vec3 roughnessMetallicAmbientOcclusion = texture(pbrTexture, texCoord).rgb;
   // Roughness inputs are perceptually linear; convert them to regular roughness
   // values. Roughness levels approaching 0 will make specular reflections
@@ -259,6 +265,17 @@ void Pbr_CreateMaterialParameters(const in vec2 texCoord,
       1.0 + material.f0 * (1.0 / material.dfg.y - 1.0);
 }
 
+vec3 SampleAlbedo(const in vec2 texCoord) {
+#ifdef USE_INSTANCING
+  // Sample both so that texture lookups stay in uniform control flow
+  return mix(texture(u_AlbedoTexture, texCoord).rgb,
+             texture(u_AlternateAlbedoTexture, texCoord).rgb,
+             v_AlbedoSelector);
+#else
+  return texture(u_AlbedoTexture, texCoord).rgb;
+#endif
+}
+
 vec3 LinearToSrgb(const vec3 color) {
   vec3 kGamma = vec3(1.0 / 2.2);
   return clamp(pow(color, kGamma), 0.0, 1.0);
@@ -268,9 +285,11 @@ void main() {
   // Mirror texture coordinates over the X axis
   vec2 texCoord = vec2(v_TexCoord.x, 1.0 - v_TexCoord.y);
 
+  vec3 albedo = SampleAlbedo(texCoord);
+
   // Skip all lighting calculations if the estimation is not valid.
   if (!u_LightEstimateIsValid) {
-    o_FragColor = vec4(texture(u_AlbedoTexture, texCoord).rgb, 1.0);
+    o_FragColor = vec4(albedo, 1.0);
     return;
   }
 
@@ -279,7 +298,7 @@ void main() {
                               u_ViewLightDirection, u_ViewInverse, shading);
 
   MaterialParameters material;
-  Pbr_CreateMaterialParameters(texCoord, u_AlbedoTexture,
+  Pbr_CreateMaterialParameters(texCoord, albedo,
                                u_RoughnessMetallicAmbientOcclusionTexture,
                                u_DfgTexture, shading, material);
 
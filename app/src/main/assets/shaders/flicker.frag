@@ -1,7 +1,15 @@
 #version 300 es
 precision mediump float;
+#ifdef USE_INSTANCING
+in vec4 v_Color;
+#else
 uniform vec4 u_Color;
+#endif
 out vec4 outColor;
 void main() {
+#ifdef USE_INSTANCING
+    outColor = v_Color;
+#else
     outColor = u_Color;
+#endif
 }
@@ -1,6 +1,18 @@
 #version 300 es
 layout(location = 0) in vec3 a_Position;
+#ifdef USE_INSTANCING
+layout(location = 3) in mat4 a_Model;
+layout(location = 7) in vec4 a_Color;
+uniform mat4 u_ViewProjection;
+out vec4 v_Color;
+#else
 uniform mat4 u_ModelViewProjection;
+#endif
 void main() {
+#ifdef USE_INSTANCING
+    v_Color = a_Color;
+    gl_Position = u_ViewProjection * a_Model * vec4(a_Position, 1.0);
+#else
     gl_Position = u_ModelViewProjection * vec4(a_Position, 1.0);
+#endif
 }
@@ -17,17 +17,20 @@
 
 layout(location = 0) in vec2 aPosition;
 layout(location = 1) in vec2 aTexPos;
+// Per-instance world position and the label's rectangle in the atlas (u, v, width, height).
+layout(location = 2) in vec3 aLabelOrigin;
+layout(location = 3) in vec4 aAtlasRect;
 
 out vec2 vTexPos;
 
 uniform mat4 u_ViewProjection;
 uniform vec3 u_CameraPos;
-uniform vec3 u_LabelOrigin;
 
 void main() {
-  vTexPos = aTexPos;
-  vec3 labelNormal = normalize(u_CameraPos - u_LabelOrigin);
+  // Atlas rows run top to bottom, so flip the quad's texture coordinates into the slot
+  vTexPos = aAtlasRect.xy + vec2(aTexPos.x, 1.0 - aTexPos.y) * aAtlasRect.zw;
+  vec3 labelNormal = normalize(u_CameraPos - aLabelOrigin);
   vec3 labelSide = -cross(labelNormal, vec3(0.0, 1.0, 0.0));
-  vec3 modelPosition = u_LabelOrigin + aPosition.x*0.1 * labelSide + aPosition.y * vec3(0.0, 1.0, 0.0)*0.1;
+  vec3 modelPosition = aLabelOrigin + aPosition.x*0.1 * labelSide + aPosition.y * vec3(0.0, 1.0, 0.0)*0.1;
   gl_Position = u_ViewProjection * vec4(modelPosition, 1.0);
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recycles direct buffers, byte arrays and bitmaps keyed by size and format. Released objects are
+ * retained up to a byte cap; beyond that the least recently released size class is dropped first.
+ * Buffer and array sizes are rounded up to a power of two so that slightly different requests share
+ * a size class. Contents of acquired objects are undefined.
+ *
+ * <p>Occupancy is reported as the objects and bytes currently leased out, with their high-water
+ * mark. Objects that were never acquired from this pool still count when released, so leases are
+ * clamped at zero rather than going negative.
+ */
+public final class BufferPool {
+  public static final long DEFAULT_MAX_RETAINED_BYTES = 32L * 1024 * 1024;
+  private static final int KIND_DIRECT_BUFFER = 0;
+  private static final int KIND_BYTE_ARRAY = 1;
+  private static final int KIND_BITMAP = 2;
+  private static final BufferPool shared = new BufferPool(DEFAULT_MAX_RETAINED_BYTES);
+
+  private final Map<Long, ArrayDeque<Object>> free = new LinkedHashMap<>(16, 0.75f, true);
+  private final long maxRetainedBytes;
+  private long retainedBytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long leasedCount;
+  private long leasedBytes;
+  private long peakLeasedBytes;
+
+  public BufferPool(long maxRetainedBytes) {
+    if (maxRetainedBytes < 0) {
+      throw new IllegalArgumentException("Retained byte cap must not be negative");
+    }
+    this.maxRetainedBytes = maxRetainedBytes;
+  }
+
+  public static BufferPool getShared() {
+    return shared;
+  }
+
+  /** Returns a native-order direct buffer with at least {@code size} bytes and its limit at {@code size}. */
+  public ByteBuffer acquireDirectBuffer(int size) {
+    int capacity = roundUpToPowerOfTwo(size);
+    ByteBuffer buffer = (ByteBuffer) take(key(KIND_DIRECT_BUFFER, capacity, 0));
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(capacity);
+    }
+    leased(capacity);
+    buffer.clear();
+    buffer.limit(size);
+    return buffer.order(ByteOrder.nativeOrder());
+  }
+
+  public void releaseDirectBuffer(ByteBuffer buffer) {
+    if (!buffer.isDirect() || Integer.bitCount(buffer.capacity()) != 1) {
+      return;
+    }
+    returned(buffer.capacity());
+    put(key(KIND_DIRECT_BUFFER, buffer.capacity(), 0), buffer, buffer.capacity());
+  }
+
+  /** Returns an array of at least {@code size} bytes. */
+  public byte[] acquireByteArray(int size) {
+    int length = roundUpToPowerOfTwo(size);
+    byte[] array = (byte[]) take(key(KIND_BYTE_ARRAY, length, 0));
+    leased(length);
+    return array != null ? array : new byte[length];
+  }
+
+  public void releaseByteArray(byte[] array) {
+    if (Integer.bitCount(array.length) != 1) {
+      return;
+    }
+    returned(array.length);
+    put(key(KIND_BYTE_ARRAY, array.length, 0), array, array.length);
+  }
+
+  public Bitmap acquireBitmap(int width, int height, Bitmap.Config config) {
+    Bitmap bitmap = (Bitmap) take(key(KIND_BITMAP, width * 65536 + height, config.ordinal()));
+    if (bitmap == null) {
+      bitmap = Bitmap.createBitmap(width, height, config);
+    }
+    leased(bitmap.getAllocationByteCount());
+    return bitmap;
+  }
+
+  public void releaseBitmap(Bitmap bitmap) {
+    if (bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+    returned(bitmap.getAllocationByteCount());
+    put(key(KIND_BITMAP, bitmap.getWidth() * 65536 + bitmap.getHeight(), bitmap.getConfig().ordinal()), bitmap, bitmap.getAllocationByteCount());
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getRetainedBytes() {
+    return retainedBytes;
+  }
+
+  /** Objects acquired from the pool that have not been released yet. */
+  public synchronized long getLeasedCount() {
+    return leasedCount;
+  }
+
+  public synchronized long getLeasedBytes() {
+    return leasedBytes;
+  }
+
+  /** Highest {@link #getLeasedBytes()} seen since the pool was created. */
+  public synchronized long getPeakLeasedBytes() {
+    return peakLeasedBytes;
+  }
+
+  public synchronized void clear() {
+    for (ArrayDeque<Object> entries : free.values()) {
+      for (Object entry : entries) {
+        recycle(entry);
+      }
+    }
+    free.clear();
+    retainedBytes = 0;
+  }
+
+  private synchronized Object take(long key) {
+    ArrayDeque<Object> entries = free.get(key);
+    Object entry = entries != null ? entries.pollLast() : null;
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    retainedBytes -= sizeOf(entry);
+    return entry;
+  }
+
+  private synchronized void leased(long size) {
+    leasedCount++;
+    leasedBytes += size;
+    peakLeasedBytes = Math.max(peakLeasedBytes, leasedBytes);
+  }
+
+  private synchronized void returned(long size) {
+    leasedCount = Math.max(leasedCount - 1, 0);
+    leasedBytes = Math.max(leasedBytes - size, 0);
+  }
+
+  private synchronized void put(long key, Object entry, long size) {
+    if (size > maxRetainedBytes) {
+      recycle(entry);
+      return;
+    }
+
+    Iterator<ArrayDeque<Object>> eldest = free.values().iterator();
+    while (retainedBytes + size > maxRetainedBytes && eldest.hasNext()) {
+      ArrayDeque<Object> entries = eldest.next();
+      while (retainedBytes + size > maxRetainedBytes && !entries.isEmpty()) {
+        Object evicted = entries.pollFirst();
+        retainedBytes -= sizeOf(evicted);
+        recycle(evicted);
+        evictions++;
+      }
+      if (entries.isEmpty()) {
+        eldest.remove();
+      }
+    }
+
+    ArrayDeque<Object> entries = free.get(key);
+    if (entries == null) {
+      entries = new ArrayDeque<>();
+      free.put(key, entries);
+    }
+    entries.addLast(entry);
+    retainedBytes += size;
+  }
+
+  private static long key(int kind, int size, int format) {
+    return ((long) kind << 56) | ((long) format << 40) | (size & 0xffffffffL);
+  }
+
+  private static long sizeOf(Object entry) {
+    if (entry instanceof ByteBuffer) {
+      return ((ByteBuffer) entry).capacity();
+    } else if (entry instanceof byte[]) {
+      return ((byte[]) entry).length;
+    } else {
+      return ((Bitmap) entry).getAllocationByteCount();
+    }
+  }
+
+  private static void recycle(Object entry) {
+    if (entry instanceof Bitmap) {
+      ((Bitmap) entry).recycle();
+    }
+  }
+
+  private static int roundUpToPowerOfTwo(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Size must not be negative");
+    }
+    return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+  }
+}
@@ -0,0 +1,66 @@
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+public class DetectionSettings {
+  public static final String SHARED_PREFERENCES_ID = "SHARED_PREFERENCES_DETECTION_OPTIONS";
+  public static final String SHARED_PREFERENCES_CONTINUOUS_DETECTION_ENABLED = "continuous_detection_enabled";
+  public static final String SHARED_PREFERENCES_ROI_DETECTION_ENABLED = "roi_detection_enabled";
+  public static final String SHARED_PREFERENCES_METRICS_OVERLAY_ENABLED = "metrics_overlay_enabled";
+  private boolean continuousDetectionEnabled = false;
+  private boolean roiDetectionEnabled = false;
+  private boolean metricsOverlayEnabled = false;
+  private SharedPreferences sharedPreferences;
+
+  public void onCreate(Context context) {
+    sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_ID, Context.MODE_PRIVATE);
+    continuousDetectionEnabled = sharedPreferences.getBoolean(SHARED_PREFERENCES_CONTINUOUS_DETECTION_ENABLED, false);
+    roiDetectionEnabled = sharedPreferences.getBoolean(SHARED_PREFERENCES_ROI_DETECTION_ENABLED, false);
+    metricsOverlayEnabled = sharedPreferences.getBoolean(SHARED_PREFERENCES_METRICS_OVERLAY_ENABLED, false);
+  }
+
+  public boolean isContinuousDetectionEnabled() {
+    return continuousDetectionEnabled;
+  }
+
+  public void setContinuousDetectionEnabled(boolean enable) {
+    if (enable == continuousDetectionEnabled) {
+      return;
+    }
+    continuousDetectionEnabled = enable;
+    SharedPreferences.Editor editor = sharedPreferences.edit();
+    editor.putBoolean(SHARED_PREFERENCES_CONTINUOUS_DETECTION_ENABLED, continuousDetectionEnabled);
+    editor.apply();
+  }
+
+  /** Whether detection only looks at the focus region in the middle of the screen. */
+  public boolean isRoiDetectionEnabled() {
+    return roiDetectionEnabled;
+  }
+
+  public void setRoiDetectionEnabled(boolean enable) {
+    if (enable == roiDetectionEnabled) {
+      return;
+    }
+    roiDetectionEnabled = enable;
+    SharedPreferences.Editor editor = sharedPreferences.edit();
+    editor.putBoolean(SHARED_PREFERENCES_ROI_DETECTION_ENABLED, roiDetectionEnabled);
+    editor.apply();
+  }
+
+  /** Whether per-stage detection timings are shown on top of the camera view. */
+  public boolean isMetricsOverlayEnabled() {
+    return metricsOverlayEnabled;
+  }
+
+  public void setMetricsOverlayEnabled(boolean enable) {
+    if (enable == metricsOverlayEnabled) {
+      return;
+    }
+    metricsOverlayEnabled = enable;
+    SharedPreferences.Editor editor = sharedPreferences.edit();
+    editor.putBoolean(SHARED_PREFERENCES_METRICS_OVERLAY_ENABLED, metricsOverlayEnabled);
+    editor.apply();
+  }
+}
@@ -12,8 +12,15 @@ import java.io.InputStream;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
+/**
+ * A vertex array object over a set of vertex buffers and an optional index buffer. Instance buffers
+ * advance once per instance rather than once per vertex and are bound to the attribute locations
+ * that follow the vertex buffers; one with more than four entries per instance spans several
+ * consecutive vec4 locations, so a 16-entry buffer can feed a {@code mat4} attribute.
+ */
 public class Mesh implements Closeable {
   private static final String TAG = Mesh.class.getSimpleName();
+  private static final int MAX_ATTRIBUTE_SIZE = 4;
 
   public enum PrimitiveMode {
     POINTS(GLES30.GL_POINTS),
@@ -33,8 +40,13 @@ public class Mesh implements Closeable {
   private final PrimitiveMode primitiveMode;
   private final IndexBuffer indexBuffer;
   private final VertexBuffer[] vertexBuffers;
+  private final VertexBuffer[] instanceBuffers;
 
   public Mesh(SampleRender render, PrimitiveMode primitiveMode, IndexBuffer indexBuffer, VertexBuffer[] vertexBuffers) {
+    this(render, primitiveMode, indexBuffer, vertexBuffers, null);
+  }
+
+  public Mesh(SampleRender render, PrimitiveMode primitiveMode, IndexBuffer indexBuffer, VertexBuffer[] vertexBuffers, VertexBuffer[] instanceBuffers) {
     if (vertexBuffers == null || vertexBuffers.length == 0) {
       throw new IllegalArgumentException("Must pass at least one vertex buffer");
     }
@@ -42,6 +54,7 @@ public class Mesh implements Closeable {
     this.primitiveMode = primitiveMode;
     this.indexBuffer = indexBuffer;
     this.vertexBuffers = vertexBuffers;
+    this.instanceBuffers = instanceBuffers != null ? instanceBuffers : new VertexBuffer[0];
 
     try {
       GLES30.glGenVertexArrays(1, vertexArrayId, 0);
@@ -61,6 +74,27 @@ public class Mesh implements Closeable {
         GLES30.glEnableVertexAttribArray(i);
         GLError.maybeThrowGLException("Failed to enable vertex buffer", "glEnableVertexAttribArray");
       }
+
+      int location = vertexBuffers.length;
+      for (VertexBuffer instanceBuffer : this.instanceBuffers) {
+        int entries = instanceBuffer.getNumberOfEntriesPerVertex();
+        if (entries > MAX_ATTRIBUTE_SIZE && entries % MAX_ATTRIBUTE_SIZE != 0) {
+          throw new IllegalArgumentException(
+              "Instance buffers wider than " + MAX_ATTRIBUTE_SIZE + " entries must be a multiple of it");
+        }
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, instanceBuffer.getBufferId());
+        GLError.maybeThrowGLException("Failed to bind instance buffer", "glBindBuffer");
+        int stride = entries * GpuBuffer.FLOAT_SIZE;
+        for (int offset = 0; offset < entries; offset += MAX_ATTRIBUTE_SIZE, ++location) {
+          int size = Math.min(entries - offset, MAX_ATTRIBUTE_SIZE);
+          GLES30.glVertexAttribPointer(location, size, GLES30.GL_FLOAT, false, stride, offset * GpuBuffer.FLOAT_SIZE);
+          GLError.maybeThrowGLException("Failed to associate instance buffer with vertex array", "glVertexAttribPointer");
+          GLES30.glVertexAttribDivisor(location, 1);
+          GLError.maybeThrowGLException("Failed to set instance buffer divisor", "glVertexAttribDivisor");
+          GLES30.glEnableVertexAttribArray(location);
+          GLError.maybeThrowGLException("Failed to enable instance buffer", "glEnableVertexAttribArray");
+        }
+      }
     } catch (Throwable t) {
       close();
       throw t;
@@ -68,6 +102,11 @@ public class Mesh implements Closeable {
   }
 
   public static Mesh createFromAsset(SampleRender render, String assetFileName) throws IOException {
+    return createFromAsset(render, assetFileName, null);
+  }
+
+  /** Loads an OBJ model whose attributes are followed by the given per-instance buffers. */
+  public static Mesh createFromAsset(SampleRender render, String assetFileName, VertexBuffer[] instanceBuffers) throws IOException {
     try (InputStream inputStream = render.getAssets().open(assetFileName)) {
       Obj obj = ObjUtils.convertToRenderable(ObjReader.read(inputStream));
 
@@ -83,7 +122,7 @@ public class Mesh implements Closeable {
       };
 
       IndexBuffer indexBuffer = new IndexBuffer(render, vertexIndices);
-      return new Mesh(render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers);
+      return new Mesh(render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers, instanceBuffers);
     }
   }
 
@@ -97,33 +136,62 @@ public class Mesh implements Closeable {
   }
 
   public void lowLevelDraw() {
+    bindVertexArray();
+    if (indexBuffer == null) {
+      GLES30.glDrawArrays(primitiveMode.glesEnum, 0, getVertexCount());
+      GLError.maybeThrowGLException("Failed to draw vertex array object", "glDrawArrays");
+
+    } else {
+      GLES30.glDrawElements(primitiveMode.glesEnum, indexBuffer.getSize(), GLES30.GL_UNSIGNED_INT, 0);
+      GLError.maybeThrowGLException("Failed to draw vertex array object with indices", "glDrawElements");
+    }
+  }
+
+  /** Draws {@code instanceCount} instances; every instance buffer must hold at least that many. */
+  public void lowLevelDrawInstanced(int instanceCount) {
+    for (int i = 0; i < instanceBuffers.length; ++i) {
+      if (instanceBuffers[i].getNumberOfVertices() < instanceCount) {
+        throw new IllegalStateException(
+            String.format(
+                "Instance buffer [%d] holds %d instances but %d were drawn",
+                i, instanceBuffers[i].getNumberOfVertices(), instanceCount));
+      }
+    }
+
+    bindVertexArray();
+    if (indexBuffer == null) {
+      GLES30.glDrawArraysInstanced(primitiveMode.glesEnum, 0, getVertexCount(), instanceCount);
+      GLError.maybeThrowGLException("Failed to draw vertex array object instances", "glDrawArraysInstanced");
+
+    } else {
+      GLES30.glDrawElementsInstanced(primitiveMode.glesEnum, indexBuffer.getSize(), GLES30.GL_UNSIGNED_INT, 0, instanceCount);
+      GLError.maybeThrowGLException("Failed to draw vertex array object instances with indices", "glDrawElementsInstanced");
+    }
+  }
+
+  private void bindVertexArray() {
     if (vertexArrayId[0] == 0) {
       throw new IllegalStateException("Tried to draw a freed Mesh");
     }
 
     GLES30.glBindVertexArray(vertexArrayId[0]);
     GLError.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
-    if (indexBuffer == null) {
-      int vertexCount = vertexBuffers[0].getNumberOfVertices();
+  }
 
-      for (int i = 1; i < vertexBuffers.length; ++i) {
-        int iterCount = vertexBuffers[i].getNumberOfVertices();
+  private int getVertexCount() {
+    int vertexCount = vertexBuffers[0].getNumberOfVertices();
 
-        if (iterCount != vertexCount) {
-          throw new IllegalStateException(
-              String.format(
-                  "Vertex buffers have mismatching numbers of vertices ([0] has %d but [%d] has"
-                      + " %d)",
-                  vertexCount, i, iterCount));
-        }
-      }
-
-      GLES30.glDrawArrays(primitiveMode.glesEnum, 0, vertexCount);
-      GLError.maybeThrowGLException("Failed to draw vertex array object", "glDrawArrays");
+    for (int i = 1; i < vertexBuffers.length; ++i) {
+      int iterCount = vertexBuffers[i].getNumberOfVertices();
 
-    } else {
-      GLES30.glDrawElements(primitiveMode.glesEnum, indexBuffer.getSize(), GLES30.GL_UNSIGNED_INT, 0);
-      GLError.maybeThrowGLException("Failed to draw vertex array object with indices", "glDrawElements");
+      if (iterCount != vertexCount) {
+        throw new IllegalStateException(
+            String.format(
+                "Vertex buffers have mismatching numbers of vertices ([0] has %d but [%d] has"
+                    + " %d)",
+                vertexCount, i, iterCount));
+      }
     }
+    return vertexCount;
   }
 }
@@ -55,6 +55,16 @@ public class SampleRender {
     mesh.lowLevelDraw();
   }
 
+  /** Draws {@code instanceCount} instances of {@code mesh} with a single draw call. */
+  public void drawInstanced(Mesh mesh, Shader shader, Framebuffer framebuffer, int instanceCount) {
+    if (instanceCount <= 0) {
+      return;
+    }
+    useFramebuffer(framebuffer);
+    shader.lowLevelUse();
+    mesh.lowLevelDrawInstanced(instanceCount);
+  }
+
   public void clear(Framebuffer framebuffer, float r, float g, float b, float a) {
     useFramebuffer(framebuffer);
     GLES30.glClearColor(r, g, b, a);
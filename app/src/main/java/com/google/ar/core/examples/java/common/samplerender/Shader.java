@@ -2,6 +2,7 @@ package com.google.ar.core.examples.java.common.samplerender;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import android.content.res.AssetManager;
+import android.opengl.GLES11Ext;
 import android.opengl.GLES30;
 import android.opengl.GLException;
 import android.util.Log;
@@ -9,14 +10,29 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 
+/**
+ * A linked shader program and the values of its uniforms. Every active uniform gets a slot with
+ * preallocated storage when the program is linked; setters copy into that slot and mark it dirty,
+ * and {@link #lowLevelUse} uploads only dirty slots, since the program keeps uniform values between
+ * draws. Textures are bound on every use because texture units are shared between programs.
+ */
 public class Shader implements Closeable {
   private static final String TAG = Shader.class.getSimpleName();
 
+  // How a slot's values were last set, which decides the glUniform* call that uploads them
+  private static final int KIND_INT = 0;
+  private static final int KIND_1F = 1;
+  private static final int KIND_2F = 2;
+  private static final int KIND_3F = 3;
+  private static final int KIND_4F = 4;
+  private static final int KIND_MATRIX_2F = 5;
+  private static final int KIND_MATRIX_3F = 6;
+  private static final int KIND_MATRIX_4F = 7;
+
   public static enum BlendFactor {
     ZERO(GLES30.GL_ZERO),
     ONE(GLES30.GL_ONE),
@@ -39,10 +55,25 @@ public class Shader implements Closeable {
   }
 
   private int programId = 0;
-  private final Map<Integer, Uniform> uniforms = new HashMap<>();
   private int maxTextureUnit = 0;
-  private final Map<String, Integer> uniformLocations = new HashMap<>();
-  private final Map<Integer, String> uniformNames = new HashMap<>();
+  private final Map<String, Integer> uniformSlots = new HashMap<>();
+
+  // Per-slot uniform state, indexed by the values in uniformSlots
+  private String[] uniformNames;
+  private int[] uniformLocations;
+  private int[] uniformTypes;
+  private boolean[] uniformHoldsInts;
+  private int[] uniformOffsets;
+  private int[] uniformCapacities;
+  private int[] uniformKinds;
+  private int[] uniformCounts;
+  private boolean[] uniformDirty;
+  private int[] textureUnits;
+  private Texture[] textures;
+  private int[] textureSlots;
+  private int textureCount = 0;
+  private float[] floatValues;
+  private int[] intValues;
   private boolean depthTest = true;
   private boolean depthWrite = true;
   private boolean cullFace = true;
@@ -78,6 +109,8 @@ public class Shader implements Closeable {
         throw new GLException(0, "Shader link failed: " + infoLog);
       }
 
+      createUniformSlots();
+
     } catch (Throwable t) {
       close();
       throw t;
@@ -138,152 +171,270 @@ public class Shader implements Closeable {
     return this;
   }
 
-  public Shader setTexture(String name, Texture texture) {
-    int location = getUniformLocation(name);
-    Uniform uniform = uniforms.get(location);
-    int textureUnit;
+  /**
+   * A uniform resolved once by name, so setting it through the handle skips the name lookup. A
+   * handle belongs to the shader that created it; values reach the GPU on its next draw.
+   */
+  public abstract static class Uniform {
+    final Shader shader;
+    final int slot;
 
-    if (!(uniform instanceof UniformTexture)) {
-      textureUnit = maxTextureUnit++;
-    } else {
-      UniformTexture uniformTexture = (UniformTexture) uniform;
-      textureUnit = uniformTexture.getTextureUnit();
+    private Uniform(Shader shader, int slot) {
+      this.shader = shader;
+      this.slot = slot;
+    }
+
+    public String getName() {
+      return shader.uniformNames[slot];
+    }
+
+    /**
+     * Finds this uniform's slot in {@code other}, a shader built from the same source. Such programs
+     * usually list their uniforms in the same order, so the slot is tried before the name lookup.
+     */
+    int slotIn(Shader other) {
+      String name = getName();
+      if (slot < other.uniformNames.length && name.equals(other.uniformNames[slot])) {
+        return slot;
+      }
+      return other.getUniformSlot(name);
+    }
+  }
+
+  /** An int, bool or sampler uniform. */
+  public static final class IntUniform extends Uniform {
+    private IntUniform(Shader shader, int slot) {
+      super(shader, slot);
+    }
+
+    public void set(int v0) {
+      shader.intValues[shader.prepareSlot(slot, KIND_INT, 1)] = v0;
+    }
+
+    public void set(boolean v0) {
+      shader.intValues[shader.prepareSlot(slot, KIND_INT, 1)] = v0 ? 1 : 0;
+    }
+
+    /** The same uniform in {@code other}, a shader built from the same source. */
+    public IntUniform forShader(Shader other) {
+      return other == shader ? this : new IntUniform(other, other.requireInts(slotIn(other)));
+    }
+  }
+
+  public static final class FloatUniform extends Uniform {
+    private FloatUniform(Shader shader, int slot) {
+      super(shader, slot);
+    }
+
+    public void set(float v0) {
+      shader.floatValues[shader.prepareSlot(slot, KIND_1F, 1)] = v0;
+    }
+
+    /** The same uniform in {@code other}, a shader built from the same source. */
+    public FloatUniform forShader(Shader other) {
+      return other == shader ? this : new FloatUniform(other, other.requireFloats(slotIn(other)));
+    }
+  }
+
+  /** A vector or matrix uniform, or an array of them, set from packed floats. */
+  public static final class FloatsUniform extends Uniform {
+    private final int kind;
+    private final boolean isArray;
+
+    private FloatsUniform(Shader shader, int slot, int kind, boolean isArray) {
+      super(shader, slot);
+      this.kind = kind;
+      this.isArray = isArray;
+    }
+
+    public void set(float[] values) {
+      shader.setFloats(slot, kind, isArray, values);
+    }
+
+    /** The same uniform in {@code other}, a shader built from the same source. */
+    public FloatsUniform forShader(Shader other) {
+      return other == shader
+          ? this
+          : new FloatsUniform(other, other.requireFloats(slotIn(other)), kind, isArray);
+    }
+  }
+
+  public static final class TextureUniform extends Uniform {
+    private TextureUniform(Shader shader, int slot) {
+      super(shader, slot);
+    }
+
+    public void set(Texture texture) {
+      shader.setTexture(slot, texture);
+    }
+
+    /** The same uniform in {@code other}, a shader built from the same source. */
+    public TextureUniform forShader(Shader other) {
+      return other == shader ? this : new TextureUniform(other, other.requireSampler(slotIn(other)));
     }
+  }
+
+  /** Resolves an int or bool uniform. */
+  public IntUniform getIntUniform(String name) {
+    return new IntUniform(this, requireInts(getUniformSlot(name)));
+  }
+
+  public FloatUniform getFloatUniform(String name) {
+    return new FloatUniform(this, requireFloats(getUniformSlot(name)));
+  }
+
+  public FloatsUniform getVec2Uniform(String name) {
+    return getFloatsUniform(name, KIND_2F, false);
+  }
+
+  public FloatsUniform getVec3Uniform(String name) {
+    return getFloatsUniform(name, KIND_3F, false);
+  }
+
+  public FloatsUniform getVec4Uniform(String name) {
+    return getFloatsUniform(name, KIND_4F, false);
+  }
+
+  public FloatsUniform getMat2Uniform(String name) {
+    return getFloatsUniform(name, KIND_MATRIX_2F, false);
+  }
+
+  public FloatsUniform getMat3Uniform(String name) {
+    return getFloatsUniform(name, KIND_MATRIX_3F, false);
+  }
+
+  public FloatsUniform getMat4Uniform(String name) {
+    return getFloatsUniform(name, KIND_MATRIX_4F, false);
+  }
+
+  public FloatsUniform getFloatArrayUniform(String name) {
+    return getFloatsUniform(name, KIND_1F, true);
+  }
+
+  public FloatsUniform getVec2ArrayUniform(String name) {
+    return getFloatsUniform(name, KIND_2F, true);
+  }
+
+  public FloatsUniform getVec3ArrayUniform(String name) {
+    return getFloatsUniform(name, KIND_3F, true);
+  }
+
+  public FloatsUniform getVec4ArrayUniform(String name) {
+    return getFloatsUniform(name, KIND_4F, true);
+  }
+
+  public FloatsUniform getMat2ArrayUniform(String name) {
+    return getFloatsUniform(name, KIND_MATRIX_2F, true);
+  }
+
+  public FloatsUniform getMat3ArrayUniform(String name) {
+    return getFloatsUniform(name, KIND_MATRIX_3F, true);
+  }
+
+  public FloatsUniform getMat4ArrayUniform(String name) {
+    return getFloatsUniform(name, KIND_MATRIX_4F, true);
+  }
+
+  public TextureUniform getTextureUniform(String name) {
+    return new TextureUniform(this, requireSampler(getUniformSlot(name)));
+  }
 
-    uniforms.put(location, new UniformTexture(textureUnit, texture));
+  public Shader setTexture(String name, Texture texture) {
+    setTexture(requireSampler(getUniformSlot(name)), texture);
     return this;
   }
 
   public Shader setBool(String name, boolean v0) {
-    int[] values = {v0 ? 1 : 0};
-    uniforms.put(getUniformLocation(name), new UniformInt(values));
+    intValues[prepareSlot(requireInts(getUniformSlot(name)), KIND_INT, 1)] = v0 ? 1 : 0;
     return this;
   }
 
   public Shader setInt(String name, int v0) {
-    int[] values = {v0};
-    uniforms.put(getUniformLocation(name), new UniformInt(values));
+    intValues[prepareSlot(requireInts(getUniformSlot(name)), KIND_INT, 1)] = v0;
     return this;
   }
 
   public Shader setFloat(String name, float v0) {
-    float[] values = {v0};
-    uniforms.put(getUniformLocation(name), new Uniform1f(values));
+    floatValues[prepareSlot(requireFloats(getUniformSlot(name)), KIND_1F, 1)] = v0;
     return this;
   }
 
   public Shader setVec2(String name, float[] values) {
-    if (values.length != 2) {
-      throw new IllegalArgumentException("Value array length must be 2");
-    }
-    uniforms.put(getUniformLocation(name), new Uniform2f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_2F, false, values);
     return this;
   }
 
   public Shader setVec3(String name, float[] values) {
-    if (values.length != 3) {
-      throw new IllegalArgumentException("Value array length must be 3");
-    }
-    uniforms.put(getUniformLocation(name), new Uniform3f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_3F, false, values);
     return this;
   }
 
   public Shader setVec4(String name, float[] values) {
-    if (values.length != 4) {
-      throw new IllegalArgumentException("Value array length must be 4");
-    }
-    uniforms.put(getUniformLocation(name), new Uniform4f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_4F, false, values);
     return this;
   }
 
   public Shader setMat2(String name, float[] values) {
-    if (values.length != 4) {
-      throw new IllegalArgumentException("Value array length must be 4 (2x2)");
-    }
-    uniforms.put(getUniformLocation(name), new UniformMatrix2f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_MATRIX_2F, false, values);
     return this;
   }
 
   public Shader setMat3(String name, float[] values) {
-    if (values.length != 9) {
-      throw new IllegalArgumentException("Value array length must be 9 (3x3)");
-    }
-    uniforms.put(getUniformLocation(name), new UniformMatrix3f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_MATRIX_3F, false, values);
     return this;
   }
 
   public Shader setMat4(String name, float[] values) {
-    if (values.length != 16) {
-      throw new IllegalArgumentException("Value array length must be 16 (4x4)");
-    }
-    uniforms.put(getUniformLocation(name), new UniformMatrix4f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_MATRIX_4F, false, values);
     return this;
   }
 
   public Shader setBoolArray(String name, boolean[] values) {
-    int[] intValues = new int[values.length];
+    int offset = prepareSlot(requireInts(getUniformSlot(name)), KIND_INT, values.length);
     for (int i = 0; i < values.length; ++i) {
-      intValues[i] = values[i] ? 1 : 0;
+      intValues[offset + i] = values[i] ? 1 : 0;
     }
-    uniforms.put(getUniformLocation(name), new UniformInt(intValues));
     return this;
   }
 
   public Shader setIntArray(String name, int[] values) {
-    uniforms.put(getUniformLocation(name), new UniformInt(values.clone()));
+    int offset = prepareSlot(requireInts(getUniformSlot(name)), KIND_INT, values.length);
+    System.arraycopy(values, 0, intValues, offset, values.length);
     return this;
   }
 
   public Shader setFloatArray(String name, float[] values) {
-    uniforms.put(getUniformLocation(name), new Uniform1f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_1F, true, values);
     return this;
   }
 
   public Shader setVec2Array(String name, float[] values) {
-    if (values.length % 2 != 0) {
-      throw new IllegalArgumentException("Value array length must be divisible by 2");
-    }
-    uniforms.put(getUniformLocation(name), new Uniform2f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_2F, true, values);
     return this;
   }
 
   public Shader setVec3Array(String name, float[] values) {
-    if (values.length % 3 != 0) {
-      throw new IllegalArgumentException("Value array length must be divisible by 3");
-    }
-    uniforms.put(getUniformLocation(name), new Uniform3f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_3F, true, values);
     return this;
   }
 
   public Shader setVec4Array(String name, float[] values) {
-    if (values.length % 4 != 0) {
-      throw new IllegalArgumentException("Value array length must be divisible by 4");
-    }
-    uniforms.put(getUniformLocation(name), new Uniform4f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_4F, true, values);
     return this;
   }
 
   public Shader setMat2Array(String name, float[] values) {
-    if (values.length % 4 != 0) {
-      throw new IllegalArgumentException("Value array length must be divisible by 4 (2x2)");
-    }
-    uniforms.put(getUniformLocation(name), new UniformMatrix2f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_MATRIX_2F, true, values);
     return this;
   }
 
   public Shader setMat3Array(String name, float[] values) {
-    if (values.length % 9 != 0) {
-      throw new IllegalArgumentException("Values array length must be divisible by 9 (3x3)");
-    }
-    uniforms.put(getUniformLocation(name), new UniformMatrix3f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_MATRIX_3F, true, values);
     return this;
   }
 
   public Shader setMat4Array(String name, float[] values) {
-    if (values.length % 16 != 0) {
-      throw new IllegalArgumentException("Value array length must be divisible by 16 (4x4)");
-    }
-    uniforms.put(getUniformLocation(name), new UniformMatrix4f(values.clone()));
+    setFloats(requireFloats(getUniformSlot(name)), KIND_MATRIX_4F, true, values);
     return this;
   }
 
@@ -316,19 +467,26 @@ public class Shader implements Closeable {
     }
 
     try {
-      ArrayList<Integer> obsoleteEntries = new ArrayList<>(uniforms.size());
-      for (Map.Entry<Integer, Uniform> entry : uniforms.entrySet()) {
+      for (int slot = 0; slot < uniformDirty.length; ++slot) {
+        if (!uniformDirty[slot]) {
+          continue;
+        }
+        try {
+          uploadUniform(slot);
+        } catch (GLException e) {
+          throw new IllegalArgumentException("Error setting uniform `" + uniformNames[slot] + "'", e);
+        }
+        uniformDirty[slot] = false;
+      }
+
+      for (int i = 0; i < textureCount; ++i) {
+        int slot = textureSlots[i];
         try {
-          entry.getValue().use(entry.getKey());
-          if (!(entry.getValue() instanceof UniformTexture)) {
-            obsoleteEntries.add(entry.getKey());
-          }
+          bindTexture(slot);
         } catch (GLException e) {
-          String name = uniformNames.get(entry.getKey());
-          throw new IllegalArgumentException("Error setting uniform `" + name + "'", e);
+          throw new IllegalArgumentException("Error setting uniform `" + uniformNames[slot] + "'", e);
         }
       }
-      uniforms.keySet().removeAll(obsoleteEntries);
 
     } finally {
       GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
@@ -336,153 +494,153 @@ public class Shader implements Closeable {
     }
   }
 
-  private static interface Uniform {
-    public void use(int location);
-  }
-
-  private static class UniformTexture implements Uniform {
-    private final int textureUnit;
-    private final Texture texture;
-
-    public UniformTexture(int textureUnit, Texture texture) {
-      this.textureUnit = textureUnit;
-      this.texture = texture;
-    }
+  private void uploadUniform(int slot) {
+    int location = uniformLocations[slot];
+    int offset = uniformOffsets[slot];
+    int count = uniformCounts[slot];
 
-    public int getTextureUnit() {
-      return textureUnit;
-    }
+    switch (uniformKinds[slot]) {
+      case KIND_INT:
+        GLES30.glUniform1iv(location, count, intValues, offset);
+        GLError.maybeThrowGLException("Failed to set shader uniform 1i", "glUniform1iv");
+        break;
+      case KIND_1F:
+        GLES30.glUniform1fv(location, count, floatValues, offset);
+        GLError.maybeThrowGLException("Failed to set shader uniform 1f", "glUniform1fv");
+        break;
+      case KIND_2F:
+        GLES30.glUniform2fv(location, count / 2, floatValues, offset);
+        GLError.maybeThrowGLException("Failed to set shader uniform 2f", "glUniform2fv");
+        break;
+      case KIND_3F:
+        GLES30.glUniform3fv(location, count / 3, floatValues, offset);
+        GLError.maybeThrowGLException("Failed to set shader uniform 3f", "glUniform3fv");
+        break;
+      case KIND_4F:
+        GLES30.glUniform4fv(location, count / 4, floatValues, offset);
+        GLError.maybeThrowGLException("Failed to set shader uniform 4f", "glUniform4fv");
+        break;
+      case KIND_MATRIX_2F:
+        GLES30.glUniformMatrix2fv(location, count / 4, false, floatValues, offset);
+        GLError.maybeThrowGLException("Failed to set shader uniform matrix 2f", "glUniformMatrix2fv");
+        break;
+      case KIND_MATRIX_3F:
+        GLES30.glUniformMatrix3fv(location, count / 9, false, floatValues, offset);
+        GLError.maybeThrowGLException("Failed to set shader uniform matrix 3f", "glUniformMatrix3fv");
+        break;
+      case KIND_MATRIX_4F:
+        GLES30.glUniformMatrix4fv(location, count / 16, false, floatValues, offset);
+        GLError.maybeThrowGLException("Failed to set shader uniform matrix 4f", "glUniformMatrix4fv");
+        break;
+      default:
+        throw new IllegalStateException("Unknown uniform kind " + uniformKinds[slot]);
+    }
+  }
 
-    @Override
-    public void use(int location) {
-      if (texture.getTextureId() == 0) {
-        throw new IllegalStateException("Tried to draw with freed texture");
-      }
-      GLES30.glActiveTexture(GLES30.GL_TEXTURE0 + textureUnit);
-      GLError.maybeThrowGLException("Failed to set active texture", "glActiveTexture");
-      GLES30.glBindTexture(texture.getTarget().glesEnum, texture.getTextureId());
-      GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
-      GLES30.glUniform1i(location, textureUnit);
-      GLError.maybeThrowGLException("Failed to set shader texture uniform", "glUniform1i");
+  private void bindTexture(int slot) {
+    Texture texture = textures[slot];
+    if (texture.getTextureId() == 0) {
+      throw new IllegalStateException("Tried to draw with freed texture");
     }
+    GLES30.glActiveTexture(GLES30.GL_TEXTURE0 + textureUnits[slot]);
+    GLError.maybeThrowGLException("Failed to set active texture", "glActiveTexture");
+    GLES30.glBindTexture(texture.getTarget().glesEnum, texture.getTextureId());
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
   }
 
-  private static class UniformInt implements Uniform {
-    private final int[] values;
-
-    public UniformInt(int[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniform1iv(location, values.length, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 1i", "glUniform1iv");
-    }
+  private FloatsUniform getFloatsUniform(String name, int kind, boolean isArray) {
+    return new FloatsUniform(this, requireFloats(getUniformSlot(name)), kind, isArray);
   }
 
-  private static class Uniform1f implements Uniform {
-    private final float[] values;
-
-    public Uniform1f(float[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniform1fv(location, values.length, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 1f", "glUniform1fv");
+  private int requireFloats(int slot) {
+    if (uniformHoldsInts[slot]) {
+      throw new IllegalArgumentException("Shader uniform does not hold floats: " + uniformNames[slot]);
     }
+    return slot;
   }
 
-  private static class Uniform2f implements Uniform {
-    private final float[] values;
-
-    public Uniform2f(float[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniform2fv(location, values.length / 2, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 2f", "glUniform2fv");
+  private int requireInts(int slot) {
+    if (!uniformHoldsInts[slot]) {
+      throw new IllegalArgumentException("Shader uniform does not hold ints: " + uniformNames[slot]);
     }
+    return slot;
   }
 
-  private static class Uniform3f implements Uniform {
-    private final float[] values;
-
-    public Uniform3f(float[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniform3fv(location, values.length / 3, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 3f", "glUniform3fv");
+  private int requireSampler(int slot) {
+    if (!isSamplerType(uniformTypes[slot])) {
+      throw new IllegalArgumentException("Shader uniform is not a sampler: " + uniformNames[slot]);
     }
+    return slot;
   }
 
-  private static class Uniform4f implements Uniform {
-    private final float[] values;
-
-    public Uniform4f(float[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniform4fv(location, values.length / 4, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 4f", "glUniform4fv");
+  /** Checks that {@code count} values fit in the slot, marks it dirty and returns where they go. */
+  private int prepareSlot(int slot, int kind, int count) {
+    if (count > uniformCapacities[slot]) {
+      throw new IllegalArgumentException(
+          "Too many values for shader uniform " + uniformNames[slot] + ": " + count + " > " + uniformCapacities[slot]);
     }
+    uniformKinds[slot] = kind;
+    uniformCounts[slot] = count;
+    uniformDirty[slot] = true;
+    return uniformOffsets[slot];
   }
 
-  private static class UniformMatrix2f implements Uniform {
-    private final float[] values;
-
-    public UniformMatrix2f(float[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniformMatrix2fv(location, values.length / 4, false, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform matrix 2f", "glUniformMatrix2fv");
-    }
+  private void setFloats(int slot, int kind, boolean isArray, float[] values) {
+    int elementLength = getElementLength(kind);
+    if (isArray ? values.length % elementLength != 0 : values.length != elementLength) {
+      throw new IllegalArgumentException(
+          "Value array length must be "
+              + (isArray ? "divisible by " : "")
+              + elementLength
+              + getElementShapeSuffix(kind));
+    }
+    System.arraycopy(values, 0, floatValues, prepareSlot(slot, kind, values.length), values.length);
+  }
+
+  private void setTexture(int slot, Texture texture) {
+    if (textureUnits[slot] == -1) {
+      textureUnits[slot] = maxTextureUnit++;
+      textureSlots[textureCount++] = slot;
+      intValues[prepareSlot(slot, KIND_INT, 1)] = textureUnits[slot];
+    }
+    textures[slot] = texture;
   }
 
-  private static class UniformMatrix3f implements Uniform {
-    private final float[] values;
-
-    public UniformMatrix3f(float[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniformMatrix3fv(location, values.length / 9, false, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform matrix 3f", "glUniformMatrix3fv");
+  private static int getElementLength(int kind) {
+    switch (kind) {
+      case KIND_2F:
+        return 2;
+      case KIND_3F:
+        return 3;
+      case KIND_4F:
+      case KIND_MATRIX_2F:
+        return 4;
+      case KIND_MATRIX_3F:
+        return 9;
+      case KIND_MATRIX_4F:
+        return 16;
+      default:
+        return 1;
     }
   }
 
-  private static class UniformMatrix4f implements Uniform {
-    private final float[] values;
-
-    public UniformMatrix4f(float[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniformMatrix4fv(location, values.length / 16, false, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform matrix 4f", "glUniformMatrix4fv");
+  private static String getElementShapeSuffix(int kind) {
+    switch (kind) {
+      case KIND_MATRIX_2F:
+        return " (2x2)";
+      case KIND_MATRIX_3F:
+        return " (3x3)";
+      case KIND_MATRIX_4F:
+        return " (4x4)";
+      default:
+        return "";
     }
   }
 
-  private int getUniformLocation(String name) {
-    Integer locationObject = uniformLocations.get(name);
-    if (locationObject != null) {
-      return locationObject;
+  private int getUniformSlot(String name) {
+    Integer slot = uniformSlots.get(name);
+    if (slot != null) {
+      return slot;
     }
 
     int location = GLES30.glGetUniformLocation(programId, name);
@@ -491,11 +649,152 @@ public class Shader implements Closeable {
     if (location == -1) {
       throw new IllegalArgumentException("Shader uniform does not exist: " + name);
     }
+    throw new IllegalArgumentException("Shader uniform array elements cannot be set one by one: " + name);
+  }
+
+  /** Gives every active uniform of the linked program a slot sized for its type and array length. */
+  private void createUniformSlots() {
+    final int[] activeUniforms = new int[1];
+    GLES30.glGetProgramiv(programId, GLES30.GL_ACTIVE_UNIFORMS, activeUniforms, 0);
+    GLError.maybeThrowGLException("Failed to query active uniforms", "glGetProgramiv");
+
+    int slotCount = activeUniforms[0];
+    uniformNames = new String[slotCount];
+    uniformLocations = new int[slotCount];
+    uniformTypes = new int[slotCount];
+    uniformHoldsInts = new boolean[slotCount];
+    uniformOffsets = new int[slotCount];
+    uniformCapacities = new int[slotCount];
+    uniformKinds = new int[slotCount];
+    uniformCounts = new int[slotCount];
+    uniformDirty = new boolean[slotCount];
+    textureUnits = new int[slotCount];
+    textures = new Texture[slotCount];
+    textureSlots = new int[slotCount];
+
+    final int[] size = new int[1];
+    final int[] type = new int[1];
+    int floatCount = 0;
+    int intCount = 0;
+    int slot = 0;
+
+    for (int i = 0; i < slotCount; ++i) {
+      String name = GLES30.glGetActiveUniform(programId, i, size, 0, type, 0);
+      GLError.maybeThrowGLException("Failed to query active uniform", "glGetActiveUniform");
+      int location = GLES30.glGetUniformLocation(programId, name);
+      GLError.maybeThrowGLException("Failed to find uniform", "glGetUniformLocation");
+      if (location == -1) {
+        // Uniform block members are not set through locations
+        continue;
+      }
 
-    uniformLocations.put(name, Integer.valueOf(location));
-    uniformNames.put(Integer.valueOf(location), name);
+      int components = getComponentCount(type[0]);
+      uniformNames[slot] = name;
+      uniformLocations[slot] = location;
+      uniformTypes[slot] = type[0];
+      uniformHoldsInts[slot] = !isFloatType(type[0]);
+      uniformCapacities[slot] = components * size[0];
+      textureUnits[slot] = -1;
+      if (uniformHoldsInts[slot]) {
+        uniformOffsets[slot] = intCount;
+        intCount += uniformCapacities[slot];
+      } else {
+        uniformOffsets[slot] = floatCount;
+        floatCount += uniformCapacities[slot];
+      }
 
-    return location;
+      // Arrays are reported as their first element, but are set by their own name
+      uniformSlots.put(name, slot);
+      if (name.endsWith("[0]")) {
+        uniformSlots.put(name.substring(0, name.length() - 3), slot);
+      }
+      ++slot;
+    }
+
+    floatValues = new float[floatCount];
+    intValues = new int[intCount];
+  }
+
+  private static boolean isFloatType(int type) {
+    switch (type) {
+      case GLES30.GL_FLOAT:
+      case GLES30.GL_FLOAT_VEC2:
+      case GLES30.GL_FLOAT_VEC3:
+      case GLES30.GL_FLOAT_VEC4:
+      case GLES30.GL_FLOAT_MAT2:
+      case GLES30.GL_FLOAT_MAT3:
+      case GLES30.GL_FLOAT_MAT4:
+      case GLES30.GL_FLOAT_MAT2x3:
+      case GLES30.GL_FLOAT_MAT2x4:
+      case GLES30.GL_FLOAT_MAT3x2:
+      case GLES30.GL_FLOAT_MAT3x4:
+      case GLES30.GL_FLOAT_MAT4x2:
+      case GLES30.GL_FLOAT_MAT4x3:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isSamplerType(int type) {
+    switch (type) {
+      case GLES30.GL_SAMPLER_2D:
+      case GLES30.GL_SAMPLER_3D:
+      case GLES30.GL_SAMPLER_CUBE:
+      case GLES30.GL_SAMPLER_2D_SHADOW:
+      case GLES30.GL_SAMPLER_2D_ARRAY:
+      case GLES30.GL_SAMPLER_2D_ARRAY_SHADOW:
+      case GLES30.GL_SAMPLER_CUBE_SHADOW:
+      case GLES30.GL_INT_SAMPLER_2D:
+      case GLES30.GL_INT_SAMPLER_3D:
+      case GLES30.GL_INT_SAMPLER_CUBE:
+      case GLES30.GL_INT_SAMPLER_2D_ARRAY:
+      case GLES30.GL_UNSIGNED_INT_SAMPLER_2D:
+      case GLES30.GL_UNSIGNED_INT_SAMPLER_3D:
+      case GLES30.GL_UNSIGNED_INT_SAMPLER_CUBE:
+      case GLES30.GL_UNSIGNED_INT_SAMPLER_2D_ARRAY:
+      case GLES11Ext.GL_SAMPLER_EXTERNAL_OES:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static int getComponentCount(int type) {
+    switch (type) {
+      case GLES30.GL_FLOAT_VEC2:
+      case GLES30.GL_INT_VEC2:
+      case GLES30.GL_UNSIGNED_INT_VEC2:
+      case GLES30.GL_BOOL_VEC2:
+        return 2;
+      case GLES30.GL_FLOAT_VEC3:
+      case GLES30.GL_INT_VEC3:
+      case GLES30.GL_UNSIGNED_INT_VEC3:
+      case GLES30.GL_BOOL_VEC3:
+        return 3;
+      case GLES30.GL_FLOAT_VEC4:
+      case GLES30.GL_INT_VEC4:
+      case GLES30.GL_UNSIGNED_INT_VEC4:
+      case GLES30.GL_BOOL_VEC4:
+      case GLES30.GL_FLOAT_MAT2:
+        return 4;
+      case GLES30.GL_FLOAT_MAT2x3:
+      case GLES30.GL_FLOAT_MAT3x2:
+        return 6;
+      case GLES30.GL_FLOAT_MAT2x4:
+      case GLES30.GL_FLOAT_MAT4x2:
+        return 8;
+      case GLES30.GL_FLOAT_MAT3:
+        return 9;
+      case GLES30.GL_FLOAT_MAT3x4:
+      case GLES30.GL_FLOAT_MAT4x3:
+        return 12;
+      case GLES30.GL_FLOAT_MAT4:
+        return 16;
+      default:
+        // Scalars and samplers
+        return 1;
+    }
   }
 
   private static int createShader(int type, String code) {
@@ -79,6 +79,7 @@ public class Texture implements Closeable {
 
     try {
       bitmap = convertBitmapToConfig(BitmapFactory.decodeStream(render.getAssets().open(assetFileName)), Bitmap.Config.ARGB_8888);
+      // One-shot upload: a pooled buffer this size would only sit in the pool afterwards
       ByteBuffer buffer = ByteBuffer.allocateDirect(bitmap.getByteCount());
       bitmap.copyPixelsToBuffer(buffer);
       buffer.rewind();
@@ -45,6 +45,10 @@ public class PlaneRenderer {
   private final IndexBuffer indexBufferObject;
   private final VertexBuffer vertexBufferObject;
   private final Shader shader;
+  private final Shader.FloatsUniform modelUniform;
+  private final Shader.FloatsUniform modelViewProjectionUniform;
+  private final Shader.FloatsUniform planeUvMatrixUniform;
+  private final Shader.FloatsUniform normalUniform;
 
   private FloatBuffer vertexBuffer =
       ByteBuffer.allocateDirect(INITIAL_VERTEX_BUFFER_SIZE_BYTES)
@@ -72,6 +76,10 @@ public class PlaneRenderer {
             .setVec4("u_GridControl", GRID_CONTROL)
             .setBlend(BlendFactor.DST_ALPHA, BlendFactor.ONE, BlendFactor.ZERO, BlendFactor.ONE_MINUS_SRC_ALPHA)
             .setDepthWrite(false);
+    modelUniform = shader.getMat4Uniform("u_Model");
+    modelViewProjectionUniform = shader.getMat4Uniform("u_ModelViewProjection");
+    planeUvMatrixUniform = shader.getMat2Uniform("u_PlaneUvMatrix");
+    normalUniform = shader.getVec3Uniform("u_Normal");
 
     indexBufferObject = new IndexBuffer(render, null);
     vertexBufferObject = new VertexBuffer(render, COORDS_PER_VERTEX, null);
@@ -205,10 +213,10 @@ public class PlaneRenderer {
       Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
       Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraProjection, 0, modelViewMatrix, 0);
 
-      shader.setMat4("u_Model", modelMatrix);
-      shader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
-      shader.setMat2("u_PlaneUvMatrix", planeAngleUvMatrix);
-      shader.setVec3("u_Normal", normalVector);
+      modelUniform.set(modelMatrix);
+      modelViewProjectionUniform.set(modelViewProjectionMatrix);
+      planeUvMatrixUniform.set(planeAngleUvMatrix);
+      normalUniform.set(normalVector);
 
       vertexBufferObject.set(vertexBuffer);
       indexBufferObject.set(indexBuffer);
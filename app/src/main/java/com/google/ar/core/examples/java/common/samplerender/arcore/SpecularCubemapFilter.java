@@ -104,6 +104,7 @@ public class SpecularCubemapFilter implements Closeable {
   private final Texture radianceCubemap;
   private final Texture ldCubemap;
   private final Shader[] shaders;
+  private final Shader.IntUniform[] roughnessLevelUniforms;
   private final Mesh mesh;
   private final int[][] framebuffers;
 
@@ -120,6 +121,10 @@ public class SpecularCubemapFilter implements Closeable {
       ChunkIterable chunks = new ChunkIterable(getMaxColorAttachments());
       initializeLdCubemap();
       shaders = createShaders(render, chunks);
+      roughnessLevelUniforms = new Shader.IntUniform[shaders.length];
+      for (int i = 0; i < shaders.length; ++i) {
+        roughnessLevelUniforms[i] = shaders[i].getIntUniform("u_RoughnessLevel");
+      }
       framebuffers = createFramebuffers(chunks);
 
       VertexBuffer coordsBuffer = new VertexBuffer(render, COMPONENTS_PER_VERTEX, COORDS_BUFFER);
@@ -202,7 +207,7 @@ public class SpecularCubemapFilter implements Closeable {
         for (int chunkIndex = 0; chunkIndex < shaders.length; ++chunkIndex) {
           GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebuffers[level][chunkIndex]);
           GLError.maybeThrowGLException("Failed to bind cubemap framebuffer", "glBindFramebuffer");
-          shaders[chunkIndex].setInt("u_RoughnessLevel", level);
+          roughnessLevelUniforms[chunkIndex].set(level);
           shaders[chunkIndex].lowLevelUse();
           mesh.lowLevelDraw();
         }
@@ -260,19 +265,27 @@ public class SpecularCubemapFilter implements Closeable {
                   .setDepthWrite(false);
     }
 
-    for (Shader shader : shaders) {
-      for (int i = 0; i < importanceSampleCaches.length; ++i) {
-        ImportanceSampleCacheEntry[] cache = importanceSampleCaches[i];
-        String cacheName = "u_ImportanceSampleCaches[" + i + "]";
-        shader.setInt(cacheName + ".number_of_entries", cache.length);
-
-        for (int j = 0; j < cache.length; ++j) {
-          ImportanceSampleCacheEntry entry = cache[j];
-          String entryName = cacheName + ".entries[" + j + "]";
-          shader
-              .setVec3(entryName + ".direction", entry.direction)
-              .setFloat(entryName + ".contribution", entry.contribution)
-              .setFloat(entryName + ".level", entry.level);
+    // Every chunk shader has the same uniforms, so each is resolved by name on the first shader only
+    // and carried to the others by slot
+    Shader firstShader = shaders[0];
+    for (int i = 0; i < importanceSampleCaches.length; ++i) {
+      ImportanceSampleCacheEntry[] cache = importanceSampleCaches[i];
+      String cacheName = "u_ImportanceSampleCaches[" + i + "]";
+      Shader.IntUniform numberOfEntries = firstShader.getIntUniform(cacheName + ".number_of_entries");
+      for (Shader shader : shaders) {
+        numberOfEntries.forShader(shader).set(cache.length);
+      }
+
+      for (int j = 0; j < cache.length; ++j) {
+        ImportanceSampleCacheEntry entry = cache[j];
+        String entryName = cacheName + ".entries[" + j + "]";
+        Shader.FloatsUniform direction = firstShader.getVec3Uniform(entryName + ".direction");
+        Shader.FloatUniform contribution = firstShader.getFloatUniform(entryName + ".contribution");
+        Shader.FloatUniform level = firstShader.getFloatUniform(entryName + ".level");
+        for (Shader shader : shaders) {
+          direction.forShader(shader).set(entry.direction);
+          contribution.forShader(shader).set(entry.contribution);
+          level.forShader(shader).set(entry.level);
         }
       }
     }
@@ -0,0 +1,43 @@
+package com.google.ar.core.examples.kotlin.common.helpers
+
+/**
+ * Clockwise rotations of a sensor-oriented grid, shared by every stage that writes pixels in
+ * display order. Walking output row by row starts at [rotatedOrigin] and advances by
+ * [rotatedColumnStep] per output column and [rotatedRowStep] per output row, where the strides are
+ * those of the unrotated source. `VertexUtils.unrotateX` and `VertexUtils.unrotateY` are the inverse mapping.
+ */
+object ImageUtils {
+  fun swapsAxes(rotation: Int): Boolean = when (rotation) {
+    0, 180 -> false
+    90, 270 -> true
+    else -> error("Invalid imageRotation $rotation")
+  }
+
+  fun rotatedWidth(width: Int, height: Int, rotation: Int) = if (swapsAxes(rotation)) height else width
+
+  fun rotatedHeight(width: Int, height: Int, rotation: Int) = if (swapsAxes(rotation)) width else height
+
+  fun rotatedOrigin(width: Int, height: Int, columnStride: Int, rowStride: Int, rotation: Int): Int = when (rotation) {
+    0 -> 0
+    90 -> (height - 1) * rowStride
+    180 -> (height - 1) * rowStride + (width - 1) * columnStride
+    270 -> (width - 1) * columnStride
+    else -> error("Invalid imageRotation $rotation")
+  }
+
+  fun rotatedColumnStep(columnStride: Int, rowStride: Int, rotation: Int): Int = when (rotation) {
+    0 -> columnStride
+    90 -> -rowStride
+    180 -> -columnStride
+    270 -> rowStride
+    else -> error("Invalid imageRotation $rotation")
+  }
+
+  fun rotatedRowStep(columnStride: Int, rowStride: Int, rotation: Int): Int = when (rotation) {
+    0 -> rowStride
+    90 -> columnStride
+    180 -> -rowStride
+    270 -> -columnStride
+    else -> error("Invalid imageRotation $rotation")
+  }
+}
@@ -0,0 +1,78 @@
+package com.google.ar.core.examples.kotlin.common.helpers
+
+import android.graphics.ImageFormat
+import android.media.Image
+import com.google.ar.core.examples.java.common.helpers.BufferPool
+import java.io.Closeable
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A YUV_420_888 frame whose planes live in direct buffers leased from a [BufferPool], so the
+ * camera image it was copied from can be closed right away. Planes keep the source's row and pixel
+ * strides. [close] hands the buffers back; the frame must not be read afterwards.
+ */
+class YuvFrame private constructor(
+  val width: Int,
+  val height: Int,
+  val timestamp: Long,
+  val planes: Array<Plane>,
+  private val pool: BufferPool
+) : Closeable {
+  companion object {
+    private val live = AtomicInteger()
+    private val peakLive = AtomicInteger()
+
+    /** Frames copied but not yet closed, across the process. */
+    val liveCount: Int
+      get() = live.get()
+
+    val peakLiveCount: Int
+      get() = peakLive.get()
+
+    fun copyOf(image: Image, pool: BufferPool = BufferPool.getShared()): YuvFrame {
+      require(image.format == ImageFormat.YUV_420_888) { "Unsupported image format ${image.format}" }
+      val planes = image.planes.map { source ->
+        val sourceBuffer = source.buffer.duplicate()
+        sourceBuffer.rewind()
+        val copy = pool.acquireDirectBuffer(sourceBuffer.remaining())
+        copy.put(sourceBuffer)
+        copy.rewind()
+        Plane(copy, source.rowStride, source.pixelStride)
+      }.toTypedArray()
+
+      return track(YuvFrame(image.width, image.height, image.timestamp, planes, pool))
+    }
+
+    /**
+     * Returns a frame with undefined contents laid out the way camera images usually are: packed
+     * luma and semi-planar chroma, with U and V interleaved at a pixel stride of two.
+     */
+    fun allocate(width: Int, height: Int, timestamp: Long = 0L, pool: BufferPool = BufferPool.getShared()): YuvFrame {
+      val chromaSize = width * ((height + 1) / 2)
+      val planes = arrayOf(
+        Plane(pool.acquireDirectBuffer(width * height), width, 1),
+        Plane(pool.acquireDirectBuffer(chromaSize), width, 2),
+        Plane(pool.acquireDirectBuffer(chromaSize), width, 2)
+      )
+      return track(YuvFrame(width, height, timestamp, planes, pool))
+    }
+
+    private fun track(frame: YuvFrame): YuvFrame {
+      val count = live.incrementAndGet()
+      peakLive.accumulateAndGet(count, ::maxOf)
+      return frame
+    }
+  }
+
+  class Plane(val buffer: ByteBuffer, val rowStride: Int, val pixelStride: Int)
+
+  private val closed = AtomicBoolean()
+
+  override fun close() {
+    if (!closed.compareAndSet(false, true)) return
+    planes.forEach { pool.releaseDirectBuffer(it.buffer) }
+    live.decrementAndGet()
+  }
+}
@@ -0,0 +1,93 @@
+package com.google.ar.core.examples.kotlin.helloar
+
+import com.google.ar.core.HitResult
+import com.google.ar.core.Pose
+import com.google.ar.core.TrackingState
+
+/**
+ * Associates detections across scans. A detection whose hit lands within [matchRadiusMeters] of an
+ * anchor with the same label refreshes that anchor and moves it to the new hit instead of adding
+ * another one. Anchors that ARCore stopped tracking are detached, and in continuous detection so
+ * are anchors that have not been seen for [staleAfterMillis]; beyond [maxTracked] the least
+ * recently seen one is retired first. Only used from the GL thread.
+ */
+class DetectedAnchorTracker(
+  val matchRadiusMeters: Float = DEFAULT_MATCH_RADIUS_METERS,
+  val staleAfterMillis: Long = DEFAULT_STALE_AFTER_MILLIS,
+  val maxTracked: Int = DEFAULT_MAX_TRACKED
+) {
+  companion object {
+    const val DEFAULT_MATCH_RADIUS_METERS = 0.3f
+    const val DEFAULT_STALE_AFTER_MILLIS = 120_000L
+    const val DEFAULT_MAX_TRACKED = 32
+  }
+
+  private val tracked = mutableListOf<DetectedAnchor>()
+  val anchors: List<DetectedAnchor>
+    get() = tracked
+
+  /** Returns true when [hit] started a new anchor, false when it refreshed an existing one. */
+  fun update(label: String, confidence: Float, hit: HitResult, nowNanos: Long = System.nanoTime()): Boolean {
+    val match = findMatch(label, hit.hitPose)
+    if (match != null) {
+      // The latest hit is the better placement, since earlier ones may have been taken from further away
+      match.anchor.detach()
+      match.anchor = hit.trackable.createAnchor(hit.hitPose)
+      match.lastSeenTimestamp = nowNanos
+      match.confidence = maxOf(match.confidence, confidence)
+      match.sightings++
+      return false
+    }
+
+    if (tracked.size >= maxTracked) {
+      retire(tracked.minByOrNull { it.lastSeenTimestamp }!!)
+    }
+    tracked.add(DetectedAnchor(hit.trackable.createAnchor(hit.hitPose), label, nowNanos, nowNanos, confidence))
+    return true
+  }
+
+  /**
+   * Detaches anchors that ARCore stopped tracking, and with [retireUnseen] also those not seen for
+   * [staleAfterMillis]. Only continuous detection keeps re-seeing objects, so labels placed by
+   * explicit scans should stay until the user resets them.
+   */
+  fun retireStale(retireUnseen: Boolean, nowNanos: Long = System.nanoTime()) {
+    // Runs every frame, so walk by index rather than allocate an iterator
+    val staleNanos = staleAfterMillis * 1_000_000L
+    for (i in tracked.size - 1 downTo 0) {
+      val detected = tracked[i]
+      if (detected.anchor.trackingState == TrackingState.STOPPED || retireUnseen && nowNanos - detected.lastSeenTimestamp > staleNanos) {
+        detected.anchor.detach()
+        tracked.removeAt(i)
+      }
+    }
+  }
+
+  fun clear() {
+    tracked.forEach { it.anchor.detach() }
+    tracked.clear()
+  }
+
+  private fun findMatch(label: String, pose: Pose): DetectedAnchor? {
+    var best: DetectedAnchor? = null
+    var bestDistanceSquared = matchRadiusMeters * matchRadiusMeters
+    for (detected in tracked) {
+      if (!detected.label.equals(label, ignoreCase = true)) continue
+      val anchorPose = detected.anchor.pose
+      val dx = anchorPose.tx() - pose.tx()
+      val dy = anchorPose.ty() - pose.ty()
+      val dz = anchorPose.tz() - pose.tz()
+      val distanceSquared = dx * dx + dy * dy + dz * dz
+      if (distanceSquared <= bestDistanceSquared) {
+        best = detected
+        bestDistanceSquared = distanceSquared
+      }
+    }
+    return best
+  }
+
+  private fun retire(detected: DetectedAnchor) {
+    detected.anchor.detach()
+    tracked.remove(detected)
+  }
+}
@@ -0,0 +1,47 @@
+package com.google.ar.core.examples.kotlin.helloar
+
+import android.opengl.Matrix
+
+/**
+ * The environmental HDR light estimate in the form the pawn shader takes it. ARCore hands out new
+ * arrays on every query, so each estimate is read once, when its timestamp changes; the light
+ * direction is kept in world space and follows the view every frame. Only used from the GL thread.
+ */
+class EnvironmentLighting {
+  companion object {
+    private val sphericalHarmonicFactors = floatArrayOf(0.282095f, -0.325735f, 0.325735f, -0.325735f, 0.273137f, -0.273137f, 0.078848f, -0.273137f, 0.136569f)
+  }
+
+  val sphericalHarmonicsCoefficients = FloatArray(9 * 3)
+  val viewInverseMatrix = FloatArray(16)
+  val viewLightDirection = FloatArray(4)
+  private val worldLightDirection = floatArrayOf(0.0f, 0.0f, 0.0f, 0.0f)
+  private var lastTimestamp = -1L
+
+  /** Whether the estimate taken at [timestamp] still has to be passed to [setEstimate]. */
+  fun isNewEstimate(timestamp: Long) = timestamp != lastTimestamp
+
+  fun setEstimate(timestamp: Long, mainLightDirection: FloatArray, sphericalHarmonics: FloatArray) {
+    require(sphericalHarmonics.size == 9 * 3) {
+      "The given coefficients array must be of length 27 (3 components per 9 coefficients"
+    }
+    lastTimestamp = timestamp
+    worldLightDirection[0] = mainLightDirection[0]
+    worldLightDirection[1] = mainLightDirection[1]
+    worldLightDirection[2] = mainLightDirection[2]
+    for (i in 0 until 9 * 3) {
+      sphericalHarmonicsCoefficients[i] = sphericalHarmonics[i] * sphericalHarmonicFactors[i / 3]
+    }
+  }
+
+  /** Forgets the applied estimate, e.g. because the shaders it was applied to were recreated. */
+  fun reset() {
+    lastTimestamp = -1L
+  }
+
+  /** Updates [viewInverseMatrix] and [viewLightDirection] for [viewMatrix]. */
+  fun updateView(viewMatrix: FloatArray) {
+    Matrix.invertM(viewInverseMatrix, 0, viewMatrix, 0)
+    Matrix.multiplyMV(viewLightDirection, 0, viewMatrix, 0, worldLightDirection, 0)
+  }
+}
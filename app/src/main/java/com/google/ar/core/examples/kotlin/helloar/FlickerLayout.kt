@@ -0,0 +1,108 @@
+package com.google.ar.core.examples.kotlin.helloar
+
+import android.graphics.RectF
+import android.opengl.Matrix
+import com.google.ar.core.Pose
+import java.nio.FloatBuffer
+import kotlin.math.sqrt
+
+/**
+ * Places the blinking spheres above tapped anchors for one frame and writes their instance data.
+ * The flicker closest to the camera inside [restrictRegion], in screen coordinates from 0 to 1, is
+ * colored green. All scratch storage is allocated up front, so laying out a frame allocates
+ * nothing. Only used from the GL thread.
+ */
+class FlickerLayout(val maxFlickers: Int, private val restrictRegion: RectF) {
+  companion object {
+    private const val OFFSET_Y = 0.27f
+    private const val SCALE = 0.06f
+    private val COLOR = floatArrayOf(1f, 1f, 1f, 1f)
+    private val COLOR_CLOSEST = floatArrayOf(0f, 1f, 0f, 1f)
+  }
+
+  private val modelMatrices = FloatArray(16 * maxFlickers)
+  private val visible = BooleanArray(maxFlickers)
+  private val scaleMatrix = FloatArray(16).apply {
+    Matrix.setIdentityM(this, 0)
+    Matrix.scaleM(this, 0, SCALE, SCALE, SCALE)
+  }
+  private val finalModelMatrix = FloatArray(16)
+  private val worldPosition = FloatArray(4)
+  private val screenPosition = FloatArray(2)
+  private val viewPosition = FloatArray(4)
+  private val clipPosition = FloatArray(4)
+
+  private var viewMatrix = FloatArray(16)
+  private var projectionMatrix = FloatArray(16)
+  private var cameraPosition = FloatArray(3)
+  private var count = 0
+  private var closest = -1
+  private var closestDistance = Float.MAX_VALUE
+
+  /** Starts a frame; the arrays are read, not copied, until [write]. */
+  fun begin(viewMatrix: FloatArray, projectionMatrix: FloatArray, cameraPosition: FloatArray) {
+    this.viewMatrix = viewMatrix
+    this.projectionMatrix = projectionMatrix
+    this.cameraPosition = cameraPosition
+    count = 0
+    closest = -1
+    closestDistance = Float.MAX_VALUE
+  }
+
+  /** Places a flicker above [anchorPose] that is lit for the first half of every period of [frequencyHz]. */
+  fun add(anchorPose: Pose, elapsedSeconds: Double, frequencyHz: Double) {
+    if (count == maxFlickers) return
+    val index = count++
+    val periodSeconds = 1.0 / frequencyHz
+    visible[index] = (elapsedSeconds % periodSeconds) < (periodSeconds / 2)
+
+    // Flicker sits above the anchor, in the anchor's own frame
+    val offset = 16 * index
+    anchorPose.toMatrix(modelMatrices, offset)
+    Matrix.translateM(modelMatrices, offset, 0f, OFFSET_Y, 0f)
+    worldPosition[0] = modelMatrices[offset + 12]
+    worldPosition[1] = modelMatrices[offset + 13]
+    worldPosition[2] = modelMatrices[offset + 14]
+    worldPosition[3] = 1f
+
+    if (!worldToScreen(worldPosition, screenPosition)) return
+    if (!restrictRegion.contains(screenPosition[0], screenPosition[1])) return
+
+    val dx = worldPosition[0] - cameraPosition[0]
+    val dy = worldPosition[1] - cameraPosition[1]
+    val dz = worldPosition[2] - cameraPosition[2]
+    val distanceToCamera = sqrt(dx * dx + dy * dy + dz * dz)
+    if (distanceToCamera < closestDistance) {
+      closestDistance = distanceToCamera
+      closest = index
+    }
+  }
+
+  /** Appends a model matrix and a color for every lit flicker and returns how many were written. */
+  fun write(models: FloatBuffer, colors: FloatBuffer): Int {
+    var written = 0
+    for (i in 0 until count) {
+      if (!visible[i]) continue
+
+      // Scale the sphere down
+      Matrix.multiplyMM(finalModelMatrix, 0, modelMatrices, 16 * i, scaleMatrix, 0)
+      models.put(finalModelMatrix)
+      colors.put(if (i == closest) COLOR_CLOSEST else COLOR)
+      written++
+    }
+    return written
+  }
+
+  private fun worldToScreen(worldPosition: FloatArray, output: FloatArray): Boolean {
+    Matrix.multiplyMV(viewPosition, 0, viewMatrix, 0, worldPosition, 0)
+    Matrix.multiplyMV(clipPosition, 0, projectionMatrix, 0, viewPosition, 0)
+
+    // Perspective divide, then NDC (-1..1) to screen (0..1)
+    // Points behind the camera would otherwise be mirrored onto the screen
+    val w = clipPosition[3]
+    if (w <= 0f) return false
+    output[0] = 0.5f * (clipPosition[0] / w + 1f)
+    output[1] = 0.5f * (1f - clipPosition[1] / w)
+    return true
+  }
+}
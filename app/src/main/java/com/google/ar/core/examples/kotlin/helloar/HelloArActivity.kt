@@ -9,6 +9,7 @@ import com.google.ar.core.Config.InstantPlacementMode
 import com.google.ar.core.Session
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper
 import com.google.ar.core.examples.java.common.helpers.DepthSettings
+import com.google.ar.core.examples.java.common.helpers.DetectionSettings
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper
 import com.google.ar.core.examples.java.common.helpers.InstantPlacementSettings
 import com.google.ar.core.examples.java.common.samplerender.SampleRender
@@ -18,6 +19,8 @@ import com.google.ar.core.exceptions.UnavailableApkTooOldException
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException
+import java.io.FileDescriptor
+import java.io.PrintWriter
 
 class HelloArActivity : AppCompatActivity() {
   companion object {
@@ -29,6 +32,7 @@ class HelloArActivity : AppCompatActivity() {
   lateinit var renderer: HelloArRenderer
   val instantPlacementSettings = InstantPlacementSettings()
   val depthSettings = DepthSettings()
+  val detectionSettings = DetectionSettings()
 
   override fun onCreate(savedInstanceState: Bundle?) {
     super.onCreate(savedInstanceState)
@@ -65,6 +69,7 @@ class HelloArActivity : AppCompatActivity() {
 
     depthSettings.onCreate(this)
     instantPlacementSettings.onCreate(this)
+    detectionSettings.onCreate(this)
   }
 
   fun configureSession(session: Session) {
@@ -100,6 +105,13 @@ class HelloArActivity : AppCompatActivity() {
     }
   }
 
+  /** `adb shell dumpsys activity <package>` prints the detection pipeline timings. */
+  override fun dump(prefix: String, fd: FileDescriptor?, writer: PrintWriter, args: Array<out String>?) {
+    super.dump(prefix, fd, writer, args)
+    writer.println("${prefix}Detection pipeline:")
+    renderer.pipelineReport().lineSequence().forEach { writer.println("$prefix  $it") }
+  }
+
   override fun onWindowFocusChanged(hasFocus: Boolean) {
     super.onWindowFocusChanged(hasFocus)
     FullScreenHelper.setFullScreenOnWindowFocusChanged(this, hasFocus)
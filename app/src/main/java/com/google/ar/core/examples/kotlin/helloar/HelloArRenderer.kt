@@ -1,5 +1,6 @@
 package com.google.ar.core.examples.kotlin.helloar
 
+import android.graphics.Rect
 import android.graphics.RectF
 import android.opengl.GLES30
 import android.opengl.Matrix
@@ -11,12 +12,12 @@ import com.google.ar.core.Camera
 import com.google.ar.core.Coordinates2d
 import com.google.ar.core.DepthPoint
 import com.google.ar.core.Frame
+import com.google.ar.core.HitResult
 import com.google.ar.core.InstantPlacementPoint
 import com.google.ar.core.LightEstimate
 import com.google.ar.core.Plane
 import com.google.ar.core.Point
 import com.google.ar.core.Pose
-import com.google.ar.core.Session
 import com.google.ar.core.Trackable
 import com.google.ar.core.TrackingFailureReason
 import com.google.ar.core.TrackingState
@@ -32,28 +33,39 @@ import com.google.ar.core.examples.java.common.samplerender.VertexBuffer
 import com.google.ar.core.examples.java.common.samplerender.arcore.BackgroundRenderer
 import com.google.ar.core.examples.java.common.samplerender.arcore.PlaneRenderer
 import com.google.ar.core.examples.java.common.samplerender.arcore.SpecularCubemapFilter
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
 import com.google.ar.core.examples.kotlin.ml.CloudVision
-import com.google.ar.core.examples.kotlin.ml.DetectedObjectResult
+import com.google.ar.core.examples.kotlin.ml.DetectionCache
+import com.google.ar.core.examples.kotlin.ml.DetectionGate
+import com.google.ar.core.examples.kotlin.ml.DetectionMetrics
+import com.google.ar.core.examples.kotlin.ml.DetectionResults
+import com.google.ar.core.examples.kotlin.ml.DetectionWorker
+import com.google.ar.core.examples.kotlin.ml.FrameHistory
 import com.google.ar.core.examples.kotlin.ml.render.LabelRender
 import com.google.ar.core.exceptions.CameraNotAvailableException
 import com.google.ar.core.exceptions.NotYetAvailableException
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.MainScope
-import kotlinx.coroutines.launch
 import java.io.IOException
 import java.nio.ByteBuffer
-import kotlin.math.sqrt
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
 
 class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, DefaultLifecycleObserver, CoroutineScope by MainScope() {
   companion object {
     const val TAG = "HelloArRenderer"
-    private val sphericalHarmonicFactors = floatArrayOf(0.282095f, -0.325735f, 0.325735f, -0.325735f, 0.273137f, -0.273137f, 0.078848f, -0.273137f, 0.136569f)
     private val Z_NEAR = 0.1f
     private val Z_FAR = 100f
     val APPROXIMATE_DISTANCE_METERS = 2.0f
     val CUBEMAP_RESOLUTION = 16
     val CUBEMAP_NUMBER_OF_IMPORTANCE_SAMPLES = 32
+
+    // Hit tests for detection results stop for the frame once this much time is spent on them
+    private const val ANCHOR_PLACEMENT_BUDGET_NANOS = 2_000_000L
+
+    private fun createFloatBuffer(capacity: Int): FloatBuffer =
+      ByteBuffer.allocateDirect(capacity * java.lang.Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer()
   }
 
   lateinit var render: SampleRender
@@ -65,43 +77,82 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
   lateinit var pointCloudVertexBuffer: VertexBuffer
   lateinit var pointCloudMesh: Mesh
   lateinit var pointCloudShader: Shader
+  private lateinit var pointCloudModelViewProjectionUniform: Shader.FloatsUniform
   var lastPointCloudTimestamp: Long = 0
 
   lateinit var virtualObjectMesh: Mesh
   lateinit var virtualObjectShader: Shader
   lateinit var virtualObjectAlbedoTexture: Texture
   lateinit var virtualObjectAlbedoInstantPlacementTexture: Texture
-  private val maxAnchor = 6
+  lateinit var virtualObjectModelBuffer: VertexBuffer
+  // Uniforms set every frame, resolved once when the shader is created
+  private lateinit var virtualObjectViewUniform: Shader.FloatsUniform
+  private lateinit var virtualObjectViewProjectionUniform: Shader.FloatsUniform
+  private lateinit var lightEstimateIsValidUniform: Shader.IntUniform
+  private lateinit var viewInverseUniform: Shader.FloatsUniform
+  private lateinit var lightIntensityUniform: Shader.FloatsUniform
+  private lateinit var viewLightDirectionUniform: Shader.FloatsUniform
+  private lateinit var sphericalHarmonicsCoefficientsUniform: Shader.FloatsUniform
+  lateinit var virtualObjectAlbedoSelectorBuffer: VertexBuffer
+  // Pawns and flickers are drawn instanced, so this only sizes their instance buffers
+  private val maxAnchor = 256
 
   lateinit var flickerMesh: Mesh
   lateinit var flickerShader: Shader
+  lateinit var flickerModelBuffer: VertexBuffer
+  lateinit var flickerColorBuffer: VertexBuffer
+  private lateinit var flickerViewProjectionUniform: Shader.FloatsUniform
   lateinit var flickerTexture: Texture
 
-  private val flickerOffsetY = 0.27f
-  private val flickerScale = 0.06f
   private val flickerFrequencies = listOf(7.0, 8.0, 9.0, 11.0, 7.5, 8.5)
+
+  // Scratch storage for the frame loop. Drawing allocates nothing of its own once warmed up; the
+  // objects ARCore returns are the exception.
+  private val cameraPosition = FloatArray(3)
+  private val searchingPlanesMessage = activity.getString(R.string.searching_planes)
+  private val waitingTapsMessage = activity.getString(R.string.waiting_taps)
   private val wrappedAnchors = mutableListOf<WrappedAnchor>()
   private val restrictRegion = RectF(0.35f, 0.35f, 0.65f, 0.65f)
-  val labelRenderer = LabelRender()
+  private val flickerLayout = FlickerLayout(maxAnchor, restrictRegion)
+  private val roiPadding = 0.1f
+  val labelRenderer = LabelRender(this)
 
   val objectDetector = CloudVision(activity)
-  var scanButtonWasPressed = false
-  var objectResults: List<DetectedObjectResult>? = null
-  val detectedAnchors = mutableListOf<DetectedAnchor>()
+  val detectionCache = DetectionCache()
+  val detectionGate = DetectionGate()
+  val detectionWorker = DetectionWorker(objectDetector, this, cache = detectionCache)
+  val frameHistory = FrameHistory(this)
+  // Focal length and principal point of the CPU image, for casting rays from a capture pose
+  private val captureIntrinsics = FloatArray(4)
+  private var hasCaptureIntrinsics = false
+  @Volatile var scanButtonWasPressed = false
+  private var singleScanPending = false
+  // Set by the first scan, so sessions that never scan never pay for the frame history
+  private var hasScanned = false
+  val anchorTracker = DetectedAnchorTracker()
+  val detectedAnchors: List<DetectedAnchor>
+    get() = anchorTracker.anchors
+  @Volatile private var resetWasPressed = false
+  private val placementQueue = PlacementQueue(ANCHOR_PLACEMENT_BUDGET_NANOS)
+
+  // Per-instance data, refilled every frame and uploaded once per instanced draw
+  private val maxPawns = maxAnchor + anchorTracker.maxTracked
+  private val pawnLayout = PawnLayout(maxPawns)
+  private val pawnModels = createFloatBuffer(16 * maxPawns)
+  private val pawnAlbedoSelectors = createFloatBuffer(maxPawns)
+  private val flickerModels = createFloatBuffer(16 * maxAnchor)
+  private val flickerColors = createFloatBuffer(4 * maxAnchor)
 
   lateinit var dfgTexture: Texture
   lateinit var cubemapFilter: SpecularCubemapFilter
 
-  val modelMatrix = FloatArray(16)
   val viewMatrix = FloatArray(16)
   val projectionMatrix = FloatArray(16)
   val modelViewMatrix = FloatArray(16)
   val modelViewProjectionMatrix = FloatArray(16)
+  val viewProjectionMatrix = FloatArray(16)
 
-  val sphericalHarmonicsCoefficients = FloatArray(9 * 3)
-  val viewInverseMatrix = FloatArray(16)
-  val worldLightDirection = floatArrayOf(0.0f, 0.0f, 0.0f, 0.0f)
-  val viewLightDirection = FloatArray(4)
+  private val environmentLighting = EnvironmentLighting()
 
   lateinit var view: HelloArView
   val displayRotationHelper = DisplayRotationHelper(activity)
@@ -112,16 +163,31 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
   private fun hideSnackbar() = activity.view.snackbarHelper.hide(activity)
   private fun showSnackbar(message: String): Unit = activity.view.snackbarHelper.showError(activity, message)
 
+  // Frames are only worth recording while the user could press Scan again; continuous mode never reads them
+  private fun isScanArmed() = hasScanned && !activity.detectionSettings.isContinuousDetectionEnabled && !singleScanPending
+
   override fun onResume(owner: LifecycleOwner) {
     displayRotationHelper.onResume()
     hasSetTextureNames = false
+    hasCaptureIntrinsics = false
+    objectDetector.prewarm()
+    detectionWorker.start()
   }
 
   override fun onPause(owner: LifecycleOwner) {
     displayRotationHelper.onPause()
+    detectionWorker.stop()
+    frameHistory.clear()
+  }
+
+  override fun onDestroy(owner: LifecycleOwner) {
+    objectDetector.close()
   }
 
   override fun onSurfaceCreated(render: SampleRender) {
+    // Shaders and the cubemap filter are new, so the next light estimate has to be applied to them
+    environmentLighting.reset()
+
     // Prepare rendering resources: shaders, textures, meshes, etc
     try {
       // Plane and background renders
@@ -160,6 +226,7 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
         Shader.createFromAssets(render, "shaders/point_cloud.vert", "shaders/point_cloud.frag", null)
           .setVec4("u_Color", floatArrayOf(31.0f / 255.0f, 188.0f / 255.0f, 210.0f / 255.0f, 1.0f))
           .setFloat("u_PointSize", 5.0f)
+      pointCloudModelViewProjectionUniform = pointCloudShader.getMat4Uniform("u_ModelViewProjection")
 
       // Point cloud vertex buffer: 4 entries per vertex (X, Y, Z, confidence)
       pointCloudVertexBuffer = VertexBuffer(render, 4, null)
@@ -191,28 +258,49 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
           Texture.ColorFormat.LINEAR
         )
 
-      virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.obj")
+      // One model matrix and albedo selector per pawn instance
+      virtualObjectModelBuffer = VertexBuffer(render, 16, null)
+      virtualObjectAlbedoSelectorBuffer = VertexBuffer(render, 1, null)
+      virtualObjectMesh = Mesh.createFromAsset(
+        render,
+        "models/pawn.obj",
+        arrayOf(virtualObjectModelBuffer, virtualObjectAlbedoSelectorBuffer)
+      )
 
       virtualObjectShader =
         Shader.createFromAssets(
             render,
             "shaders/environmental_hdr.vert",
             "shaders/environmental_hdr.frag",
-            mapOf("NUMBER_OF_MIPMAP_LEVELS" to cubemapFilter.numberOfMipmapLevels.toString())
+            mapOf(
+              "NUMBER_OF_MIPMAP_LEVELS" to cubemapFilter.numberOfMipmapLevels.toString(),
+              "USE_INSTANCING" to "1"
+            )
           )
           .setTexture("u_AlbedoTexture", virtualObjectAlbedoTexture)
+          .setTexture("u_AlternateAlbedoTexture", virtualObjectAlbedoInstantPlacementTexture)
           .setTexture("u_RoughnessMetallicAmbientOcclusionTexture", virtualObjectPbrTexture)
           .setTexture("u_Cubemap", cubemapFilter.filteredCubemapTexture)
           .setTexture("u_DfgTexture", dfgTexture)
+      virtualObjectViewUniform = virtualObjectShader.getMat4Uniform("u_View")
+      virtualObjectViewProjectionUniform = virtualObjectShader.getMat4Uniform("u_ViewProjection")
+      lightEstimateIsValidUniform = virtualObjectShader.getIntUniform("u_LightEstimateIsValid")
+      viewInverseUniform = virtualObjectShader.getMat4Uniform("u_ViewInverse")
+      lightIntensityUniform = virtualObjectShader.getVec3Uniform("u_LightIntensity")
+      viewLightDirectionUniform = virtualObjectShader.getVec4Uniform("u_ViewLightDirection")
+      sphericalHarmonicsCoefficientsUniform = virtualObjectShader.getVec3ArrayUniform("u_SphericalHarmonicsCoefficients")
 
       // Flicker effect mesh and shader
-      flickerMesh = Mesh.createFromAsset(render, "models/flicker.obj")
+      flickerModelBuffer = VertexBuffer(render, 16, null)
+      flickerColorBuffer = VertexBuffer(render, 4, null)
+      flickerMesh = Mesh.createFromAsset(render, "models/flicker.obj", arrayOf(flickerModelBuffer, flickerColorBuffer))
       flickerShader = Shader.createFromAssets(
         render,
         "shaders/flicker.vert",
         "shaders/flicker.frag",
-        null
+        mapOf("USE_INSTANCING" to "1")
       )
+      flickerViewProjectionUniform = flickerShader.getMat4Uniform("u_ViewProjection")
 
       // Initialize label renderer
       labelRenderer.onSurfaceCreated(render)
@@ -228,7 +316,6 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
   }
 
   override fun onDrawFrame(render: SampleRender) {
-    Log.e(TAG, "onDrawFrame called")
     val session = session ?: return
     if (!hasSetTextureNames) {
       session.setCameraTextureNames(intArrayOf(backgroundRenderer.cameraColorTexture.textureId))
@@ -285,17 +372,18 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
     trackingStateHelper.updateKeepScreenOnFlag(camera.trackingState)
 
     // Show user guidance message based on tracking state
+    val planes = session.getAllTrackables(Plane::class.java)
+    val hasTrackingPlane = planes.hasTracking()
     val message: String? =
       when {
         camera.trackingState == TrackingState.PAUSED &&
           camera.trackingFailureReason == TrackingFailureReason.NONE ->
-          activity.getString(R.string.searching_planes)
+          searchingPlanesMessage
         camera.trackingState == TrackingState.PAUSED ->
           TrackingStateHelper.getTrackingFailureReasonString(camera)
-        session.hasTrackingPlane() && wrappedAnchors.isEmpty() ->
-          activity.getString(R.string.waiting_taps)
-        session.hasTrackingPlane() && wrappedAnchors.isNotEmpty() -> null
-        else -> activity.getString(R.string.searching_planes)
+        hasTrackingPlane && wrappedAnchors.isEmpty() -> waitingTapsMessage
+        hasTrackingPlane && wrappedAnchors.isNotEmpty() -> null
+        else -> searchingPlanesMessage
       }
     if (message == null) {
       activity.view.snackbarHelper.hide(activity)
@@ -316,6 +404,9 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
     // Get projection and view matrices
     camera.getProjectionMatrix(projectionMatrix, 0, Z_NEAR, Z_FAR)
     camera.getViewMatrix(viewMatrix, 0)
+    val cameraPose = camera.pose
+    cameraPose.getTranslation(cameraPosition, 0)
+    val frameTimeNanos = System.nanoTime()
 
     // Draw point cloud
     frame.acquirePointCloud().use { pointCloud ->
@@ -324,261 +415,196 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
         lastPointCloudTimestamp = pointCloud.timestamp
       }
       Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0)
-      pointCloudShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix)
+      pointCloudModelViewProjectionUniform.set(modelViewProjectionMatrix)
       render.draw(pointCloudMesh, pointCloudShader)
     }
 
     // Draw plane
     planeRenderer.drawPlanes(
       render,
-      session.getAllTrackables<Plane>(Plane::class.java),
+      planes,
       camera.displayOrientedPose,
       projectionMatrix
     )
 
-    // Object detection
-    if (scanButtonWasPressed) {
+    if (resetWasPressed) {
+      resetWasPressed = false
+      anchorTracker.clear()
+      wrappedAnchors.clear()
+      // A scan whose results were still being placed never reaches reportPlacement, so release its button here
+      if (placementQueue.clear()) view.post { view.setScanningActive(false) }
+      detectionGate.reset()
+    }
+
+    // Object detection: explicit scans always take a frame, continuous mode follows the worker's rate
+    val singleScan = scanButtonWasPressed
+    val continuousScan = activity.detectionSettings.isContinuousDetectionEnabled &&
+      camera.trackingState == TrackingState.TRACKING &&
+      detectionWorker.isReadyForFrame()
+    if (singleScan || continuousScan) {
       scanButtonWasPressed = false
-      val cameraImage = frame.tryAcquireCameraImage()
-      if (cameraImage != null) {
-        launch(Dispatchers.IO) {
-          try {
-              val cameraId = session.cameraConfig.cameraId
-              val imageRotation = displayRotationHelper.getCameraSensorToDisplayRotation(cameraId)
-              objectResults = objectDetector.analyze(cameraImage, imageRotation)
-              cameraImage.close()
-          } catch (e: Exception) {
-              view.post {
-                view.setScanningActive(false)
-                showSnackbar("Object detection failed: ${e.message}")
-              }
+      hasScanned = hasScanned || singleScan
+      updateCaptureIntrinsics(camera)
+      // Scans send the sharpest recently recorded frame, placed from the pose it was captured at
+      val recorded = if (singleScan) frameHistory.takeSharpest() else null
+      val cameraImage =
+        if (recorded == null) objectDetector.metrics.time(DetectionMetrics.Stage.ACQUIRE) { frame.tryAcquireCameraImage() } else null
+      if (recorded != null) {
+        val imageRotation = displayRotationHelper.getCameraSensorToDisplayRotation(session.cameraConfig.cameraId)
+        detectionWorker.cancelInFlight()
+        val crop = if (activity.detectionSettings.isRoiDetectionEnabled) {
+          detectionCrop(frame, recorded.frame.width, recorded.frame.height)
+        } else {
+          null
+        }
+        detectionWorker.offer(recorded.frame, imageRotation, recorded.cameraPose, crop)
+        singleScanPending = true
+      } else if (cameraImage != null) {
+        // The worker copies the planes, so ARCore gets its image back before this frame is drawn
+        cameraImage.use { image ->
+          if (!singleScan && detectionGate.evaluate(camera.pose, image) == DetectionGate.Decision.REJECTED) {
+            // Neither the camera nor the scene changed enough since the last scan; look again a period later
+            detectionWorker.skipFrame()
+          } else {
+            val imageRotation = displayRotationHelper.getCameraSensorToDisplayRotation(session.cameraConfig.cameraId)
+            // A fresh scan supersedes whatever the previous one is still waiting for
+            if (singleScan) detectionWorker.cancelInFlight()
+            val crop = if (activity.detectionSettings.isRoiDetectionEnabled) detectionCrop(frame, image.width, image.height) else null
+            detectionWorker.offer(image, imageRotation, camera.pose, crop)
+            singleScanPending = singleScanPending || singleScan
           }
         }
-      } else {
+      } else if (singleScan) {
         view.post { view.setScanningActive(false) }
         showSnackbar("Fail to receive camera image for object detection!")
       }
+    } else if (isScanArmed() && camera.trackingState == TrackingState.TRACKING && frameHistory.isReadyForFrame()) {
+      // The history copies, scores and closes the image off the GL thread
+      frame.tryAcquireCameraImage()?.let { frameHistory.record(it, camera.pose) }
     }
 
     // If results were completed, create anchors from model results
-    val objects = objectResults
-    if (objects != null) {
-      objectResults = null
-
-      val anchors = objects.mapNotNull { obj ->
-        val (atX, atY) = obj.centerCoordinate
-        val anchor = createAnchor(atX.toFloat(), atY.toFloat(), frame) ?: return@mapNotNull null
-        DetectedAnchor(anchor, obj.label, System.nanoTime())
-      }
-
-      detectedAnchors.addAll(anchors)
-      view.post {
-        try {
-            view.resetButton.isEnabled = detectedAnchors.isNotEmpty()
+    val result = detectionWorker.pollResult()
+    if (result != null) {
+      val reportToUser = singleScanPending
+      singleScanPending = false
+
+      val detection = result.getOrNull()
+      val objects = detection?.results
+      if (objects == null) {
+        if (reportToUser) {
+          // A scan abandoned by pausing the app only needs its button back
+          val error = result.exceptionOrNull()
+          view.post {
             view.setScanningActive(false)
-            when {
-              objects.isEmpty() ->
-                showSnackbar("No objects were detected!")
-              anchors.size != objects.size ->
-                showSnackbar("Try moving your device around to obtain a better understanding of the environment!")
-            }
-        } catch (e: Exception) {
-            Log.e(TAG, "Exception when updating UI: ${e.message}", e)
+            if (error !is CancellationException) showSnackbar("Object detection failed: ${error?.message}")
+          }
         }
+      } else if (objects.isEmpty()) {
+        reportPlacement(0, 0, reportToUser)
+      } else {
+        // Without intrinsics the capture pose is no use, so fall back to the current frame's view
+        val cameraPose = detection.cameraPose?.takeIf { hasCaptureIntrinsics }
+        val viewCoordinates = if (cameraPose == null) imageToView(objects, frame) else null
+        placementQueue.add(PendingPlacement(objects, viewCoordinates, cameraPose, reportToUser))
       }
     }
 
-    // Render labels for detected objects
-    for ((i, detectedAnchor) in detectedAnchors.withIndex()) {
-      val anchor = detectedAnchor.anchor
-      if (anchor.trackingState != TrackingState.TRACKING) continue
-      labelRenderer.draw(
-        render,
-        modelViewProjectionMatrix,
-        anchor.pose,
-        camera.pose,
-        detectedAnchor.label
-      )
-    }
+    placementQueue.placeWithinBudget(frame, detectionPlacer)
+    anchorTracker.retireStale(retireUnseen = activity.detectionSettings.isContinuousDetectionEnabled)
 
-    // Add virtual objects (pawn) at each detected label (Pawn on Label)
-    for (detectedAnchor in detectedAnchors) {
+    // Render labels for detected objects
+    for (i in detectedAnchors.indices) {
+      val detectedAnchor = detectedAnchors[i]
       val anchor = detectedAnchor.anchor
       if (anchor.trackingState != TrackingState.TRACKING) continue
-
-      anchor.pose.toMatrix(modelMatrix, 0)
-      Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0)
-      Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0)
-
-      // Update shader properties and draw
-      virtualObjectShader.setMat4("u_ModelView", modelViewMatrix)
-      virtualObjectShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix)
-      virtualObjectShader.setTexture("u_AlbedoTexture", virtualObjectAlbedoTexture)
-      render.draw(virtualObjectMesh, virtualObjectShader, virtualSceneFramebuffer)
+      labelRenderer.add(anchor.pose, detectedAnchor.label)
     }
+    labelRenderer.draw(render, modelViewProjectionMatrix, cameraPosition)
 
     // Update lighting parameters for shaders
     updateLightEstimation(frame.lightEstimate, viewMatrix)
+    Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0)
 
-    // Draw virtual objects (pawn) at each anchor
+    // Draw a pawn at each detected label (Pawn on Label) and at each tapped anchor, in one call
     render.clear(virtualSceneFramebuffer, 0f, 0f, 0f, 0f)
-    for ((anchor, trackable) in wrappedAnchors.filter { it.anchor.trackingState == TrackingState.TRACKING }) {
-      anchor.pose.toMatrix(modelMatrix, 0)
-      Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0)
-      Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0)
-
-      // Update shader properties and draw
-      virtualObjectShader.setMat4("u_ModelView", modelViewMatrix)
-      virtualObjectShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix)
-      val texture =
-        if ((trackable as? InstantPlacementPoint)?.trackingMethod ==
-            InstantPlacementPoint.TrackingMethod.SCREENSPACE_WITH_APPROXIMATE_DISTANCE
-        ) {
-          virtualObjectAlbedoInstantPlacementTexture
-        } else {
-          virtualObjectAlbedoTexture
-        }
-      virtualObjectShader.setTexture("u_AlbedoTexture", texture)
-      render.draw(virtualObjectMesh, virtualObjectShader, virtualSceneFramebuffer)
+    pawnLayout.begin()
+    for (i in detectedAnchors.indices) {
+      val anchor = detectedAnchors[i].anchor
+      if (anchor.trackingState != TrackingState.TRACKING) continue
+      pawnLayout.add(anchor.pose, PawnLayout.ALBEDO_DEFAULT)
     }
-
-    data class FlickerInfo(
-      val index: Int,
-      val wrappedAnchor: WrappedAnchor,
-      val screenPos: Pair<Float, Float>?,
-      val distanceToCamera: Float,
-      val isInRestrictRegion: Boolean,
-      val flickerOn: Boolean
-    )
-    val flickerInfos = mutableListOf<FlickerInfo>()
-
-    for ((i, wrappedAnchor) in wrappedAnchors.withIndex()) {
-      val anchor = wrappedAnchor.anchor
+    for (i in wrappedAnchors.indices) {
+      val (anchor, trackable) = wrappedAnchors[i]
       if (anchor.trackingState != TrackingState.TRACKING) continue
-
-      val flickerFrequencyHz = wrappedAnchor.flickerFrequencyHz
-      val flickerPeriodSec = 1.0 / flickerFrequencyHz
-      val elapsedSec = (System.nanoTime() - wrappedAnchor.createdTimestamp) / 1_000_000_000.0
-      val flickerOn = (elapsedSec % flickerPeriodSec) < (flickerPeriodSec / 2)
-
-      // Calculate flicker position above anchor
-      val flickerPose = anchor.pose.compose(Pose.makeTranslation(0f, flickerOffsetY, 0f))
-      val worldPosition = floatArrayOf(
-        flickerPose.tx(), flickerPose.ty(), flickerPose.tz(), 1f
-      )
-
-      // Project to screen space (0..1)
-      val screenPos = worldToScreen(
-        worldPosition,
-        viewMatrix,
-        projectionMatrix,
-        virtualSceneFramebuffer.getWidth(),
-        virtualSceneFramebuffer.getHeight()
-      )
-
-      val isInRestrictRegion = screenPos?.let { (x, y) ->
-        restrictRegion.contains(x, y)
-      } ?: false
-
-      // Calculate distance from camera to flicker
-      val cameraPos = floatArrayOf(camera.pose.tx(), camera.pose.ty(), camera.pose.tz())
-      val dx = flickerPose.tx() - cameraPos[0]
-      val dy = flickerPose.ty() - cameraPos[1]
-      val dz = flickerPose.tz() - cameraPos[2]
-      val distanceToCamera = sqrt((dx * dx + dy * dy + dz * dz).toDouble()).toFloat()
-
-      flickerInfos.add(
-        FlickerInfo(
-          index = i,
-          wrappedAnchor = wrappedAnchor,
-          screenPos = screenPos,
-          distanceToCamera = distanceToCamera,
-          isInRestrictRegion = isInRestrictRegion,
-          flickerOn = flickerOn
-        )
-      )
+      val isApproximate =
+        (trackable as? InstantPlacementPoint)?.trackingMethod ==
+          InstantPlacementPoint.TrackingMethod.SCREENSPACE_WITH_APPROXIMATE_DISTANCE
+      pawnLayout.add(anchor.pose, if (isApproximate) PawnLayout.ALBEDO_INSTANT_PLACEMENT else PawnLayout.ALBEDO_DEFAULT)
     }
-
-    // Find the closest flicker in restrict region
-    val closestFlickerInRegion = flickerInfos.filter { it.isInRestrictRegion }.minByOrNull { it.distanceToCamera }
-
-    for (info in flickerInfos) {
-      if (!info.flickerOn) continue
-      val wrappedAnchor = info.wrappedAnchor
+    pawnModels.clear()
+    pawnAlbedoSelectors.clear()
+    val pawnCount = pawnLayout.write(pawnModels, pawnAlbedoSelectors)
+    pawnModels.flip()
+    pawnAlbedoSelectors.flip()
+    virtualObjectModelBuffer.set(pawnModels)
+    virtualObjectAlbedoSelectorBuffer.set(pawnAlbedoSelectors)
+    virtualObjectViewUniform.set(viewMatrix)
+    virtualObjectViewProjectionUniform.set(viewProjectionMatrix)
+    render.drawInstanced(virtualObjectMesh, virtualObjectShader, virtualSceneFramebuffer, pawnCount)
+
+    flickerLayout.begin(viewMatrix, projectionMatrix, cameraPosition)
+    for (i in wrappedAnchors.indices) {
+      val wrappedAnchor = wrappedAnchors[i]
       val anchor = wrappedAnchor.anchor
-
-      // Calculate flicker pose above anchor
-      val flickerPose = anchor.pose.compose(Pose.makeTranslation(0f, flickerOffsetY, 0f))
-      val modelMatrix = FloatArray(16)
-      flickerPose.toMatrix(modelMatrix, 0)
-
-      // Scale sphere
-      val scaleMatrix = FloatArray(16).apply { Matrix.setIdentityM(this, 0) }
-      Matrix.scaleM(scaleMatrix, 0, flickerScale, flickerScale, flickerScale)
-      val finalModelMatrix = FloatArray(16)
-      Matrix.multiplyMM(finalModelMatrix, 0, modelMatrix, 0, scaleMatrix, 0)
-      val modelViewProjectionMatrix = FloatArray(16)
-      Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0)
-      Matrix.multiplyMM(modelViewProjectionMatrix, 0, modelViewProjectionMatrix, 0, finalModelMatrix, 0)
-
-      val isCloset = closestFlickerInRegion != null && info.index == closestFlickerInRegion.index
-
-      // If closest in restrict region: green, else white
-      if (isCloset) {
-        flickerShader.setVec4("u_Color", floatArrayOf(0f, 1f, 0f, 1f)) // Green
-      } else {
-        flickerShader.setVec4("u_Color", floatArrayOf(1f, 1f, 1f, 1f)) // White
-      }
-      flickerShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix)
-
-      render.draw(flickerMesh, flickerShader, virtualSceneFramebuffer)
+      if (anchor.trackingState != TrackingState.TRACKING) continue
+      val elapsedSec = (frameTimeNanos - wrappedAnchor.createdTimestamp) / 1_000_000_000.0
+      flickerLayout.add(anchor.pose, elapsedSec, wrappedAnchor.flickerFrequencyHz)
     }
+    flickerModels.clear()
+    flickerColors.clear()
+    val flickerCount = flickerLayout.write(flickerModels, flickerColors)
+    flickerModels.flip()
+    flickerColors.flip()
+    flickerModelBuffer.set(flickerModels)
+    flickerColorBuffer.set(flickerColors)
+    flickerViewProjectionUniform.set(viewProjectionMatrix)
+    render.drawInstanced(flickerMesh, flickerShader, virtualSceneFramebuffer, flickerCount)
     // Compose the virtual scene with the background
     backgroundRenderer.drawVirtualScene(render, virtualSceneFramebuffer, Z_NEAR, Z_FAR)
   }
 
-  private fun Session.hasTrackingPlane() =
-    getAllTrackables(Plane::class.java).any { it.trackingState == TrackingState.TRACKING }
+  private fun Collection<Plane>.hasTracking(): Boolean {
+    for (plane in this) {
+      if (plane.trackingState == TrackingState.TRACKING) return true
+    }
+    return false
+  }
 
   private fun updateLightEstimation(lightEstimate: LightEstimate, viewMatrix: FloatArray) {
     if (lightEstimate.state != LightEstimate.State.VALID) {
-      virtualObjectShader.setBool("u_LightEstimateIsValid", false)
+      lightEstimateIsValidUniform.set(false)
       return
     }
 
-    virtualObjectShader.setBool("u_LightEstimateIsValid", true)
-    Matrix.invertM(viewInverseMatrix, 0, viewMatrix, 0)
-    virtualObjectShader.setMat4("u_ViewInverse", viewInverseMatrix)
-
-    updateMainLight(
-      lightEstimate.environmentalHdrMainLightDirection,
-      lightEstimate.environmentalHdrMainLightIntensity,
-      viewMatrix
-    )
-    updateSphericalHarmonicsCoefficients(lightEstimate.environmentalHdrAmbientSphericalHarmonics)
-    cubemapFilter.update(lightEstimate.acquireEnvironmentalHdrCubeMap())
-  }
-
-  private fun updateMainLight(direction: FloatArray, intensity: FloatArray, viewMatrix: FloatArray) {
-    worldLightDirection[0] = direction[0]
-    worldLightDirection[1] = direction[1]
-    worldLightDirection[2] = direction[2]
-    Matrix.multiplyMV(viewLightDirection, 0, viewMatrix, 0, worldLightDirection, 0)
-    virtualObjectShader.setVec4("u_ViewLightDirection", viewLightDirection)
-    virtualObjectShader.setVec3("u_LightIntensity", intensity)
-  }
+    lightEstimateIsValidUniform.set(true)
 
-  private fun updateSphericalHarmonicsCoefficients(coefficients: FloatArray) {
-    require(coefficients.size == 9 * 3) {
-      "The given coefficients array must be of length 27 (3 components per 9 coefficients"
-    }
-    for (i in 0 until 9 * 3) {
-      sphericalHarmonicsCoefficients[i] = coefficients[i] * sphericalHarmonicFactors[i / 3]
+    // ARCore hands out new arrays and cubemap images on every query, so read each estimate only once
+    val timestamp = lightEstimate.timestamp
+    if (environmentLighting.isNewEstimate(timestamp)) {
+      environmentLighting.setEstimate(
+        timestamp,
+        lightEstimate.environmentalHdrMainLightDirection,
+        lightEstimate.environmentalHdrAmbientSphericalHarmonics
+      )
+      lightIntensityUniform.set(lightEstimate.environmentalHdrMainLightIntensity)
+      sphericalHarmonicsCoefficientsUniform.set(environmentLighting.sphericalHarmonicsCoefficients)
+      cubemapFilter.update(lightEstimate.acquireEnvironmentalHdrCubeMap())
     }
-    virtualObjectShader.setVec3Array(
-      "u_SphericalHarmonicsCoefficients",
-      sphericalHarmonicsCoefficients
-    )
+
+    environmentLighting.updateView(viewMatrix)
+    viewInverseUniform.set(environmentLighting.viewInverseMatrix)
+    viewLightDirectionUniform.set(environmentLighting.viewLightDirection)
   }
 
   private fun handleTap(frame: Frame, camera: Camera) {
@@ -614,7 +640,7 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
 
       // Add anchor at the hit position
       val anchorIndex = wrappedAnchors.size
-      val flickerFrequency = flickerFrequencies[anchorIndex]
+      val flickerFrequency = flickerFrequencies[anchorIndex % flickerFrequencies.size]
 
       wrappedAnchors.add(
         WrappedAnchor(
@@ -629,27 +655,6 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
     }
   }
 
-  private fun worldToScreen(worldPosition: FloatArray, viewMatrix: FloatArray, projectionMatrix: FloatArray, viewportWidth: Int, viewportHeight: Int): Pair<Float, Float>? {
-    // Multiply by view matrix
-    val tempVec = FloatArray(4)
-    Matrix.multiplyMV(tempVec, 0, viewMatrix, 0, worldPosition, 0)
-
-    // Multiply by projection matrix
-    val clipVec = FloatArray(4)
-    Matrix.multiplyMV(clipVec, 0, projectionMatrix, 0, tempVec, 0)
-
-    // Perspective divide
-    if (clipVec[3] == 0f) return null
-    val ndcX = clipVec[0] / clipVec[3]
-    val ndcY = clipVec[1] / clipVec[3]
-
-    // Convert NDC (-1..1) to screen (0..1)
-    val screenX = 0.5f * (ndcX + 1f)
-    val screenY = 0.5f * (1f - ndcY)
-
-    return Pair(screenX, screenY)
-  }
-
   fun bindView(view: HelloArView) {
     this.view = view
 
@@ -660,13 +665,32 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
     }
 
     view.resetButton.setOnClickListener {
-      detectedAnchors.clear()
-      wrappedAnchors.clear()
+      resetWasPressed = true
       view.resetButton.isEnabled = false
       hideSnackbar()
     }
   }
 
+  /** Stage timings, payload sizes and pool occupancy, for the overlay and `dumpsys`. */
+  fun pipelineReport(): String {
+    val pool = objectDetector.bufferPool
+    return objectDetector.metrics.dump() +
+      "pool     leased=%d (%.1f MiB) peak=%.1f MiB retained=%.1f MiB frames=%d peak=%d".format(
+        pool.leasedCount,
+        pool.leasedBytes / (1024.0 * 1024.0),
+        pool.peakLeasedBytes / (1024.0 * 1024.0),
+        pool.retainedBytes / (1024.0 * 1024.0),
+        YuvFrame.liveCount,
+        YuvFrame.peakLiveCount
+      ) +
+      "\nlabels   atlas=%dx%d slots=%d evictions=%d".format(
+        labelRenderer.atlas.width,
+        labelRenderer.atlas.height,
+        labelRenderer.atlas.slotCount,
+        labelRenderer.atlas.evictionCount
+      )
+  }
+
   fun Frame.tryAcquireCameraImage() = try {
     acquireCameraImage()
   } catch (e: NotYetAvailableException) {
@@ -675,22 +699,137 @@ class HelloArRenderer(val activity: HelloArActivity) : SampleRender.Renderer, De
     throw e
   }
 
-  private val convertFloats = FloatArray(4)
-  private val convertFloatsOut = FloatArray(4)
-
-  fun createAnchor(xImage: Float, yImage: Float, frame: Frame): Anchor? {
-    convertFloats[0] = xImage
-    convertFloats[1] = yImage
+  /** Transforms every result center from image pixels to view coordinates in a single call. */
+  fun imageToView(objects: DetectionResults, frame: Frame): FloatArray {
+    // The packed centers can be transformed in place unless the container has spare capacity
+    val imageCoordinates =
+      if (objects.size == objects.capacity) objects.centers else objects.centers.copyOf(objects.size * 2)
+    val viewCoordinates = FloatArray(imageCoordinates.size)
     frame.transformCoordinates2d(
       Coordinates2d.IMAGE_PIXELS,
-      convertFloats,
+      imageCoordinates,
       Coordinates2d.VIEW,
-      convertFloatsOut
+      viewCoordinates
     )
-    val hits = frame.hitTest(convertFloatsOut[0], convertFloatsOut[1])
-    val result = hits.getOrNull(0) ?: return null
+    return viewCoordinates
+  }
+
+  // Hit-tests queued detections and hands them to the tracker
+  private val detectionPlacer = object : PlacementQueue.Placer<Frame> {
+    override fun place(frame: Frame, placement: PendingPlacement, index: Int): Boolean {
+      val start = System.nanoTime()
+      val hit = hitTestDetection(frame, placement, index)
+      if (hit != null) {
+        // Detections of objects that are already anchored refresh them rather than stacking duplicates
+        anchorTracker.update(placement.objects.label(index), placement.objects.scores[index], hit)
+      }
+      objectDetector.metrics.record(DetectionMetrics.Stage.ANCHOR, System.nanoTime() - start)
+      return hit != null
+    }
 
-    return result.trackable.createAnchor(result.hitPose)
+    override fun finished(placement: PendingPlacement) {
+      reportPlacement(placement.objects.size, placement.placed, placement.reportToUser)
+    }
+  }
+
+  private val rayOrigin = FloatArray(3)
+  private val rayCameraDirection = FloatArray(3)
+  private val rayDirection = FloatArray(3)
+
+  /**
+   * Hit-tests the center of result [i]. Results with a capture pose cast a ray from where the camera
+   * was when the frame was taken, so camera motion during the request does not shift the anchor.
+   */
+  private fun hitTestDetection(frame: Frame, placement: PendingPlacement, i: Int): HitResult? {
+    val viewCoordinates = placement.viewCoordinates
+    if (viewCoordinates != null) {
+      return frame.hitTest(viewCoordinates[2 * i], viewCoordinates[2 * i + 1]).getOrNull(0)
+    }
+    val cameraPose = placement.cameraPose ?: return null
+
+    // The physical camera looks down -Z with +X right and +Y up along the CPU image
+    val objects = placement.objects
+    rayCameraDirection[0] = (objects.centerX(i) - captureIntrinsics[2]) / captureIntrinsics[0]
+    rayCameraDirection[1] = -(objects.centerY(i) - captureIntrinsics[3]) / captureIntrinsics[1]
+    rayCameraDirection[2] = -1f
+    cameraPose.rotateVector(rayCameraDirection, 0, rayDirection, 0)
+    cameraPose.getTranslation(rayOrigin, 0)
+    return frame.hitTest(rayOrigin, 0, rayDirection, 0).getOrNull(0)
+  }
+
+  private fun updateCaptureIntrinsics(camera: Camera) {
+    if (hasCaptureIntrinsics) return
+    val intrinsics = camera.imageIntrinsics
+    val focalLength = intrinsics.focalLength
+    val principalPoint = intrinsics.principalPoint
+    if (focalLength[0] <= 0f || focalLength[1] <= 0f) return
+    captureIntrinsics[0] = focalLength[0]
+    captureIntrinsics[1] = focalLength[1]
+    captureIntrinsics[2] = principalPoint[0]
+    captureIntrinsics[3] = principalPoint[1]
+    hasCaptureIntrinsics = true
+  }
+
+  private fun reportPlacement(detected: Int, placed: Int, reportToUser: Boolean) {
+    val hasAnchors = detectedAnchors.isNotEmpty()
+    view.post {
+      try {
+          view.resetButton.isEnabled = hasAnchors
+          if (reportToUser) {
+            view.setScanningActive(false)
+            when {
+              detected == 0 ->
+                showSnackbar("No objects were detected!")
+              placed != detected ->
+                showSnackbar("Try moving your device around to obtain a better understanding of the environment!")
+            }
+          }
+      } catch (e: Exception) {
+          Log.e(TAG, "Exception when updating UI: ${e.message}", e)
+      }
+    }
+  }
+
+  private val roiViewCorners = FloatArray(8)
+  private val roiImageCorners = FloatArray(8)
+
+  /** Maps [restrictRegion] on screen to a padded crop of the camera image, in image pixels. */
+  private fun detectionCrop(frame: Frame, imageWidth: Int, imageHeight: Int): Rect? {
+    roiViewCorners[0] = restrictRegion.left
+    roiViewCorners[1] = restrictRegion.top
+    roiViewCorners[2] = restrictRegion.right
+    roiViewCorners[3] = restrictRegion.top
+    roiViewCorners[4] = restrictRegion.right
+    roiViewCorners[5] = restrictRegion.bottom
+    roiViewCorners[6] = restrictRegion.left
+    roiViewCorners[7] = restrictRegion.bottom
+    frame.transformCoordinates2d(
+      Coordinates2d.VIEW_NORMALIZED,
+      roiViewCorners,
+      Coordinates2d.IMAGE_PIXELS,
+      roiImageCorners
+    )
+
+    // The display may be rotated relative to the sensor, so take the bounds of all four corners
+    var left = Float.MAX_VALUE
+    var top = Float.MAX_VALUE
+    var right = -Float.MAX_VALUE
+    var bottom = -Float.MAX_VALUE
+    for (i in 0 until 4) {
+      left = minOf(left, roiImageCorners[2 * i])
+      right = maxOf(right, roiImageCorners[2 * i])
+      top = minOf(top, roiImageCorners[2 * i + 1])
+      bottom = maxOf(bottom, roiImageCorners[2 * i + 1])
+    }
+    val padX = (right - left) * roiPadding
+    val padY = (bottom - top) * roiPadding
+    val crop = Rect(
+      (left - padX).toInt().coerceAtLeast(0),
+      (top - padY).toInt().coerceAtLeast(0),
+      (right + padX).toInt().coerceAtMost(imageWidth),
+      (bottom + padY).toInt().coerceAtMost(imageHeight)
+    )
+    return if (crop.width() >= 2 && crop.height() >= 2) crop else null
   }
 
   private fun showError(errorMessage: String) =
@@ -705,9 +844,12 @@ private data class WrappedAnchor(
   val flickerFrequencyHz: Double
 )
 
-/* Stores an anchor and its associated label */
+/* Stores an anchor and its associated label, refreshed whenever a later scan sees it again */
 data class DetectedAnchor(
-  val anchor: Anchor,
+  var anchor: Anchor,
   val label: String,
-  val createdTimestamp: Long
+  val createdTimestamp: Long,
+  var lastSeenTimestamp: Long = createdTimestamp,
+  var confidence: Float = 0f,
+  var sightings: Int = 1
 )
@@ -5,6 +5,7 @@ import android.opengl.GLSurfaceView
 import android.view.View
 import android.widget.ImageButton
 import android.widget.PopupMenu
+import android.widget.TextView
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.widget.AppCompatButton
 import androidx.lifecycle.DefaultLifecycleObserver
@@ -14,10 +15,15 @@ import com.google.ar.core.examples.java.common.helpers.SnackbarHelper
 import com.google.ar.core.examples.java.common.helpers.TapHelper
 
 class HelloArView(val activity: HelloArActivity) : DefaultLifecycleObserver {
+  companion object {
+    private const val METRICS_OVERLAY_INTERVAL_MILLIS = 1_000L
+  }
+
   val root = View.inflate(activity, R.layout.activity_main, null)
   val surfaceView = root.findViewById<GLSurfaceView>(R.id.surfaceview)
   val scanButton = root.findViewById<AppCompatButton>(R.id.scanButton)
   val resetButton = root.findViewById<AppCompatButton>(R.id.clearButton)
+  val metricsOverlay = root.findViewById<TextView>(R.id.metricsOverlay)
   val snackbarHelper = SnackbarHelper()
   val tapHelper = TapHelper(activity).also { surfaceView.setOnTouchListener(it) }
   val session
@@ -31,6 +37,7 @@ class HelloArView(val activity: HelloArActivity) : DefaultLifecycleObserver {
             when (item.itemId) {
               R.id.depth_settings -> launchDepthSettingsMenuDialog()
               R.id.instant_placement_settings -> launchInstantPlacementSettingsMenuDialog()
+              R.id.detection_settings -> launchDetectionSettingsMenuDialog()
               else -> null
             } != null
           }
@@ -53,12 +60,27 @@ class HelloArView(val activity: HelloArActivity) : DefaultLifecycleObserver {
 
   fun post(action: Runnable) = root.post(action)
 
+  // Refreshed from the UI thread; the histograms can be read while the pipeline records into them
+  private val metricsOverlayUpdater = object : Runnable {
+    override fun run() {
+      if (activity.detectionSettings.isMetricsOverlayEnabled) {
+        metricsOverlay.text = activity.renderer.pipelineReport()
+        metricsOverlay.visibility = View.VISIBLE
+      } else {
+        metricsOverlay.visibility = View.GONE
+      }
+      root.postDelayed(this, METRICS_OVERLAY_INTERVAL_MILLIS)
+    }
+  }
+
   override fun onResume(owner: LifecycleOwner) {
     surfaceView.onResume()
+    root.post(metricsOverlayUpdater)
   }
 
   override fun onPause(owner: LifecycleOwner) {
     surfaceView.onPause()
+    root.removeCallbacks(metricsOverlayUpdater)
   }
 
   fun showOcclusionDialogIfNeeded() {
@@ -94,6 +116,24 @@ class HelloArView(val activity: HelloArActivity) : DefaultLifecycleObserver {
       .show()
   }
 
+  private fun launchDetectionSettingsMenuDialog() {
+    val strings = activity.resources.getStringArray(R.array.detection_options_array)
+    val checked = booleanArrayOf(
+      activity.detectionSettings.isContinuousDetectionEnabled,
+      activity.detectionSettings.isRoiDetectionEnabled,
+      activity.detectionSettings.isMetricsOverlayEnabled
+    )
+    AlertDialog.Builder(activity)
+      .setTitle(R.string.options_title_detection)
+      .setMultiChoiceItems(strings, checked) { _, which, isChecked -> checked[which] = isChecked }
+      .setPositiveButton(R.string.done) { _, _ ->
+        activity.detectionSettings.isContinuousDetectionEnabled = checked[0]
+        activity.detectionSettings.isRoiDetectionEnabled = checked[1]
+        activity.detectionSettings.isMetricsOverlayEnabled = checked[2]
+      }
+      .show()
+  }
+
   private fun launchDepthSettingsMenuDialog() {
     val session = session ?: return
     val resources: Resources = activity.resources
@@ -0,0 +1,39 @@
+package com.google.ar.core.examples.kotlin.helloar
+
+import com.google.ar.core.Pose
+import java.nio.FloatBuffer
+
+/**
+ * Collects the pawns of one frame and writes their instance data: a model matrix and an albedo
+ * selector each. All scratch storage is allocated up front, so laying out a frame allocates
+ * nothing. Only used from the GL thread.
+ */
+class PawnLayout(val maxPawns: Int) {
+  companion object {
+    const val ALBEDO_DEFAULT = 0f
+    const val ALBEDO_INSTANT_PLACEMENT = 1f
+  }
+
+  private val modelMatrices = FloatArray(16 * maxPawns)
+  private val albedoSelectors = FloatArray(maxPawns)
+  private var count = 0
+
+  fun begin() {
+    count = 0
+  }
+
+  /** Places a pawn at [anchorPose], drawn with the albedo [albedoSelector] picks. */
+  fun add(anchorPose: Pose, albedoSelector: Float) {
+    if (count == maxPawns) return
+    anchorPose.toMatrix(modelMatrices, 16 * count)
+    albedoSelectors[count] = albedoSelector
+    count++
+  }
+
+  /** Appends a model matrix and an albedo selector for every pawn and returns how many were written. */
+  fun write(models: FloatBuffer, selectors: FloatBuffer): Int {
+    models.put(modelMatrices, 0, 16 * count)
+    selectors.put(albedoSelectors, 0, count)
+    return count
+  }
+}
@@ -0,0 +1,62 @@
+package com.google.ar.core.examples.kotlin.helloar
+
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.kotlin.ml.DetectionResults
+
+/* Results are placed either from their view coordinates in the frame they arrived in or from the capture pose */
+class PendingPlacement(
+  val objects: DetectionResults,
+  val viewCoordinates: FloatArray?,
+  val cameraPose: Pose?,
+  val reportToUser: Boolean
+) {
+  var next = 0
+  var placed = 0
+}
+
+/**
+ * Spreads the placement of detection results across frames. Each frame places results until
+ * [budgetNanos] is spent, but always at least one, so large results make progress. Only used from
+ * the GL thread.
+ */
+class PlacementQueue(val budgetNanos: Long) {
+  interface Placer<T> {
+    /** Hit-tests result [index] of [placement] against [frame]; returns whether it was placed. */
+    fun place(frame: T, placement: PendingPlacement, index: Int): Boolean
+
+    /** Called once every result of [placement] has been tried. */
+    fun finished(placement: PendingPlacement)
+  }
+
+  private val pending = ArrayDeque<PendingPlacement>()
+
+  fun isEmpty() = pending.isEmpty()
+
+  fun add(placement: PendingPlacement) {
+    pending.addLast(placement)
+  }
+
+  /** Drops every queued placement and returns whether the user is still waiting on one of them. */
+  fun clear(): Boolean {
+    var reportToUser = false
+    for (placement in pending) reportToUser = reportToUser || placement.reportToUser
+    pending.clear()
+    return reportToUser
+  }
+
+  fun <T> placeWithinBudget(frame: T, placer: Placer<T>) {
+    val deadline = System.nanoTime() + budgetNanos
+    var placedThisFrame = 0
+    while (pending.isNotEmpty()) {
+      val placement = pending.first()
+      while (placement.next < placement.objects.size) {
+        if (placedThisFrame > 0 && System.nanoTime() >= deadline) return
+        val i = placement.next++
+        placedThisFrame++
+        if (placer.place(frame, placement, i)) placement.placed++
+      }
+      pending.removeFirst()
+      placer.finished(placement)
+    }
+  }
+}
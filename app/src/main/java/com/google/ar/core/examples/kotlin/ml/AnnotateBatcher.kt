@@ -0,0 +1,181 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import android.util.Log
+import com.google.cloud.vision.v1.AnnotateImageRequest
+import com.google.cloud.vision.v1.AnnotateImageResponse
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.selects.onTimeout
+import kotlinx.coroutines.selects.select
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Coalesces single-image requests into `batchAnnotateImages` calls. A batch is sent once
+ * [windowMillis] have passed since its first request, or as soon as it reaches [maxBatchSize]
+ * requests or [maxBatchBytes] of serialized payload. Responses are routed back to each caller by
+ * their index in the batch.
+ *
+ * [send] starts the RPC with a deadline of [timeoutMillis]; pass
+ * `backend::batchAnnotateImagesAsync` of any `VisionBackend`, including one served by a local fake.
+ * Callers that are cancelled drop out of their batch, and a batch whose callers have all gone is
+ * cancelled on the wire.
+ */
+class AnnotateBatcher(
+  private val scope: CoroutineScope,
+  private val send: (BatchAnnotateImagesRequest, Long) -> CompletableFuture<BatchAnnotateImagesResponse>,
+  val windowMillis: Long = DEFAULT_WINDOW_MILLIS,
+  val maxBatchSize: Int = DEFAULT_MAX_BATCH_SIZE,
+  val maxBatchBytes: Int = DEFAULT_MAX_BATCH_BYTES,
+  val timeoutMillis: Long = 0L
+) {
+  companion object {
+    private const val TAG = "AnnotateBatcher"
+    const val DEFAULT_WINDOW_MILLIS = 30L
+
+    // Cloud Vision accepts at most 16 images per synchronous batch request
+    const val DEFAULT_MAX_BATCH_SIZE = 16
+    const val DEFAULT_MAX_BATCH_BYTES = 8 * 1024 * 1024
+  }
+
+  private class Pending(val request: AnnotateImageRequest, val onReleased: () -> Unit) {
+    val size = request.serializedSize
+    val response = CompletableDeferred<AnnotateImageResponse>()
+  }
+
+  private val queue = Channel<Pending>(Channel.UNLIMITED)
+  private var job: Job? = null
+
+  init {
+    require(windowMillis >= 0) { "Batch window must not be negative, was $windowMillis" }
+    require(maxBatchSize > 0) { "Batch size must be positive, was $maxBatchSize" }
+    require(maxBatchBytes > 0) { "Batch byte limit must be positive, was $maxBatchBytes" }
+    require(timeoutMillis >= 0) { "Timeout must not be negative, was $timeoutMillis" }
+  }
+
+  /**
+   * Queues [request] for the next batch and suspends until its own response has arrived.
+   * [onReleased] runs once the batch no longer reads [request], which may be after this call has
+   * been cancelled.
+   */
+  suspend fun annotate(request: AnnotateImageRequest, onReleased: () -> Unit = {}): AnnotateImageResponse {
+    start()
+    val pending = Pending(request, onReleased)
+    if (queue.trySend(pending).isFailure) {
+      onReleased()
+      throw IOException("Batcher is closed")
+    }
+    try {
+      return pending.response.await()
+    } catch (e: CancellationException) {
+      pending.response.cancel(e)
+      throw e
+    }
+  }
+
+  fun close() {
+    queue.close()
+    job?.cancel()
+    while (true) {
+      val pending = queue.tryReceive().getOrNull() ?: break
+      pending.response.cancel()
+      pending.onReleased()
+    }
+  }
+
+  @Synchronized
+  private fun start() {
+    if (job == null) {
+      job = scope.launch { collect() }
+    }
+  }
+
+  @OptIn(ExperimentalCoroutinesApi::class)
+  private suspend fun collect() {
+    var carry: Pending? = null
+    val batch = mutableListOf<Pending>()
+    try {
+      while (true) {
+        val first = carry ?: queue.receiveCatching().getOrNull() ?: return
+        carry = null
+
+        batch.add(first)
+        var bytes = first.size
+        val deadline = System.nanoTime() + windowMillis * 1_000_000L
+        while (batch.size < maxBatchSize) {
+          val remainingMillis = (deadline - System.nanoTime()) / 1_000_000L
+          // A select either takes an element or times out, unlike a timeout wrapped around a receive
+          // that may fire after the element has already left the queue
+          val next = queue.tryReceive().getOrNull() ?: select<Pending?> {
+            queue.onReceiveCatching { it.getOrNull() }
+            onTimeout(remainingMillis.coerceAtLeast(0)) { null }
+          } ?: break
+          if (bytes + next.size > maxBatchBytes) {
+            // Keep the request for the next batch rather than overshooting this one
+            carry = next
+            break
+          }
+          batch.add(next)
+          bytes += next.size
+        }
+
+        // Let the next window fill while this batch is on the wire
+        val queued = batch.toList()
+        batch.clear()
+        scope.launch(start = CoroutineStart.ATOMIC) { dispatch(queued) }
+      }
+    } finally {
+      // Requests already taken off the queue still owe their callers an answer and their buffers
+      carry?.let { batch.add(it) }
+      batch.forEach { pending ->
+        pending.response.cancel()
+        pending.onReleased()
+      }
+    }
+  }
+
+  private suspend fun dispatch(queued: List<Pending>) {
+    // Callers that gave up while the window was open are not worth sending
+    val (batch, abandoned) = queued.partition { it.response.isActive }
+    abandoned.forEach { it.onReleased() }
+    if (batch.isEmpty()) return
+
+    try {
+      // Atomic start runs this even once the scope is cancelled, so the batch fails instead of going missing
+      currentCoroutineContext().ensureActive()
+      val request = BatchAnnotateImagesRequest.newBuilder()
+        .addAllRequests(batch.map { it.request })
+        .build()
+      val call = send(request, timeoutMillis)
+      batch.forEach { pending ->
+        pending.response.invokeOnCompletion {
+          if (batch.all { it.response.isCancelled }) call.cancel(true)
+        }
+      }
+
+      val responses = call.await().responsesList
+      if (responses.size != batch.size) {
+        throw IOException("Expected ${batch.size} responses, received ${responses.size}")
+      }
+      batch.forEachIndexed { index, pending -> pending.response.complete(responses[index]) }
+    } catch (e: CancellationException) {
+      batch.forEach { it.response.cancel(e) }
+    } catch (e: Exception) {
+      Log.e(TAG, "Batch of ${batch.size} failed: ${e.message}", e)
+      batch.forEach { it.response.completeExceptionally(e) }
+    } finally {
+      batch.forEach { it.onReleased() }
+    }
+  }
+}
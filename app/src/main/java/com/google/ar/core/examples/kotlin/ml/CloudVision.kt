@@ -1,65 +1,180 @@
 package com.google.ar.core.examples.kotlin.ml
 
-import android.media.Image
+import android.content.Context
+import android.graphics.Rect
 import android.util.Log
-import com.google.ar.core.examples.kotlin.helloar.HelloArActivity
-import com.google.ar.core.examples.kotlin.ml.utils.ImageUtils
-import com.google.ar.core.examples.kotlin.ml.utils.ImageUtils.toByteArray
-import com.google.ar.core.examples.kotlin.ml.utils.VertexUtils.calculateAverage
-import com.google.ar.core.examples.kotlin.ml.utils.VertexUtils.rotateCoordinates
-import com.google.ar.core.examples.kotlin.ml.utils.VertexUtils.toAbsoluteCoordinates
-import com.google.auth.oauth2.GoogleCredentials
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import com.google.ar.core.examples.kotlin.ml.DetectionMetrics.Stage
+import com.google.ar.core.examples.kotlin.ml.backend.ImageAnnotatorBackend
+import com.google.ar.core.examples.kotlin.ml.backend.LazyVisionBackend
+import com.google.ar.core.examples.kotlin.ml.backend.VisionBackend
+import com.google.ar.core.examples.kotlin.ml.utils.VertexUtils.unrotateX
+import com.google.ar.core.examples.kotlin.ml.utils.VertexUtils.unrotateY
+import com.google.ar.core.examples.kotlin.ml.utils.YuvJpegEncoder
 import com.google.cloud.vision.v1.AnnotateImageRequest
+import com.google.cloud.vision.v1.AnnotateImageResponse
 import com.google.cloud.vision.v1.Feature
-import com.google.cloud.vision.v1.ImageAnnotatorClient
-import com.google.cloud.vision.v1.ImageAnnotatorSettings
 import com.google.protobuf.ByteString
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import com.google.cloud.vision.v1.Image as GCVImage
 
-class CloudVision(val activity: HelloArActivity) : ObjectDetector(activity) {
+class CloudVision(val backend: VisionBackend) : ObjectDetector() {
   companion object {
     const val TAG = "CloudVision"
+    const val UPLOAD_LONG_EDGE = 640
+    const val UPLOAD_JPEG_QUALITY = 90
+    const val UPLOAD_MAX_BYTES = 128 * 1024
+    const val RPC_TIMEOUT_MILLIS = 8_000L
+    const val REQUEST_TIMEOUT_MILLIS = 10_000L
+    const val HEDGE_PERCENTILE = 0.95
+    const val HEDGE_MIN_SAMPLES = 16
   }
 
-  init {
-    Log.e(TAG, "GoogleCloudVisionDetector init start")
-  }
+  constructor(context: Context) : this(LazyVisionBackend { ImageAnnotatorBackend.fromRawCredentials(context) })
 
-  val credentials = try {
-    val res = activity.resources.getIdentifier("credentials", "raw", activity.packageName)
-    if (res == 0) error("Missing GCP credentials in res/raw/credentials.json.")
-    GoogleCredentials.fromStream(activity.resources.openRawResource(res))
-  } catch (e: Exception) {
-    Log.e(TAG, "Unable to create Google credentials from res/raw/credentials.json. Cloud ML will be disabled.", e)
-    null
-  }
+  private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+  val batcher = AnnotateBatcher(scope, backend::batchAnnotateImagesAsync, timeoutMillis = RPC_TIMEOUT_MILLIS)
+  val latencies = LatencyWindow()
+  private val prewarmed = AtomicBoolean()
 
-  val settings = ImageAnnotatorSettings.newBuilder().setCredentialsProvider { credentials }.build()
-  val vision = ImageAnnotatorClient.create(settings)
+  /**
+   * Sends a duplicate of a request that is slower than [HEDGE_PERCENTILE] of recent ones and takes
+   * the first answer. Off by default, since every duplicate is a separately billed request.
+   */
+  @Volatile var hedgingEnabled = false
 
-  override suspend fun analyze(image: Image, imageRotation: Int): List<DetectedObjectResult> {
+  val jpegEncoder = YuvJpegEncoder(UPLOAD_JPEG_QUALITY).apply {
+    targetLongEdge = UPLOAD_LONG_EDGE
+    maxPayloadBytes = UPLOAD_MAX_BYTES
+  }
+  override suspend fun analyze(image: YuvFrame, imageRotation: Int, crop: Rect?): DetectionResults {
       try {
 
-          val convertYuv = convertYuv(image)
-          val rotatedImage = ImageUtils.rotateBitmap(convertYuv, imageRotation)
-          val request = createAnnotateImageRequest(rotatedImage.toByteArray())
-          val response = vision.batchAnnotateImages(listOf(request))
-          val objectAnnotationsResult = response.responsesList.first().localizedObjectAnnotationsList
-
-          return objectAnnotationsResult.map {
-            val center = it.boundingPoly.normalizedVerticesList.calculateAverage()
-            val absoluteCoordinates = center.toAbsoluteCoordinates(rotatedImage.width, rotatedImage.height)
-            val rotatedCoordinates = absoluteCoordinates.rotateCoordinates(rotatedImage.width, rotatedImage.height, imageRotation)
-            DetectedObjectResult(it.score, it.name, rotatedCoordinates)
+          // The encoded frame leases its buffer from the pool until every RPC reading it has completed
+          val frame = metrics.time(Stage.ENCODE) { jpegEncoder.encode(image, imageRotation, crop) }
+          metrics.payloadBytes.record(frame.size.toLong())
+          val lease = FrameLease(frame)
+          val response = try {
+            val request = metrics.time(Stage.BUILD_REQUEST) { createAnnotateImageRequest(frame.content) }
+            metrics.time(Stage.RPC) {
+              withTimeoutOrNull(REQUEST_TIMEOUT_MILLIS) { annotateHedged(request, lease) }
+            } ?: throw IOException("Cloud Vision did not answer within $REQUEST_TIMEOUT_MILLIS ms")
+          } finally {
+            lease.release()
           }
+          if (response.hasError()) throw IOException("Cloud Vision error: ${response.error.message}")
+          return metrics.time(Stage.PARSE) { toResults(response, frame, imageRotation) }
       } catch (e: Exception) {
           Log.e(TAG, "Exception in analyze: ${e.message}", e)
           throw e
       }
   }
 
-  private fun createAnnotateImageRequest(imageBytes: ByteArray): AnnotateImageRequest {
-    val image = GCVImage.newBuilder().setContent(ByteString.copyFrom(imageBytes))
+  /** Reads boxes and centers straight from the normalized polygons into full image pixels. */
+  private fun toResults(response: AnnotateImageResponse, frame: YuvJpegEncoder.Frame, imageRotation: Int): DetectionResults {
+    val rotatedWidth = frame.width * frame.scaleFactor
+    val rotatedHeight = frame.height * frame.scaleFactor
+    val results = DetectionResults(response.localizedObjectAnnotationsCount)
+
+    for (i in 0 until response.localizedObjectAnnotationsCount) {
+      val annotation = response.getLocalizedObjectAnnotations(i)
+      val polygon = annotation.boundingPoly
+      val vertexCount = polygon.normalizedVerticesCount
+      if (vertexCount == 0) continue
+
+      var left = Float.MAX_VALUE
+      var top = Float.MAX_VALUE
+      var right = -Float.MAX_VALUE
+      var bottom = -Float.MAX_VALUE
+      var sumX = 0f
+      var sumY = 0f
+      for (v in 0 until vertexCount) {
+        val vertex = polygon.getNormalizedVertices(v)
+        val rotatedX = vertex.x * rotatedWidth
+        val rotatedY = vertex.y * rotatedHeight
+        val x = frame.cropLeft + unrotateX(rotatedX, rotatedY, rotatedWidth, rotatedHeight, imageRotation)
+        val y = frame.cropTop + unrotateY(rotatedX, rotatedY, rotatedWidth, rotatedHeight, imageRotation)
+        left = minOf(left, x)
+        top = minOf(top, y)
+        right = maxOf(right, x)
+        bottom = maxOf(bottom, y)
+        sumX += x
+        sumY += y
+      }
+      results.add(left, top, right, bottom, sumX / vertexCount, sumY / vertexCount, annotation.score, DetectionResults.internLabel(annotation.name))
+    }
+    return results
+  }
+
+  private suspend fun annotateHedged(request: AnnotateImageRequest, lease: FrameLease): AnnotateImageResponse = coroutineScope {
+    val start = System.nanoTime()
+    val primary = async { batcher.annotate(request, lease.retain()) }
+    val hedgeDelay = if (hedgingEnabled) latencies.percentileMillis(HEDGE_PERCENTILE, HEDGE_MIN_SAMPLES) else null
+
+    val response = if (hedgeDelay == null) {
+      primary.await()
+    } else {
+      withTimeoutOrNull(hedgeDelay) { primary.await() } ?: run {
+        Log.d(TAG, "Hedging request after $hedgeDelay ms")
+        val hedge = async { batcher.annotate(request, lease.retain()) }
+        select {
+          primary.onAwait { it }
+          hedge.onAwait { it }
+        }
+      }
+    }
+    coroutineContext.cancelChildren()
+    latencies.record(System.nanoTime() - start)
+    response
+  }
+
+  override fun prewarm() {
+    // The connection and token outlive pauses, so one warm-up call per client is enough
+    if (!prewarmed.compareAndSet(false, true)) return
+    scope.launch {
+      try {
+        backend.prewarm()
+      } catch (e: Exception) {
+        prewarmed.set(false)
+        Log.w(TAG, "Unable to prewarm Cloud Vision: ${e.message}", e)
+      }
+    }
+  }
+
+  override fun close() {
+    batcher.close()
+    scope.cancel()
+    backend.close()
+  }
+
+  /** Closes the frame once the caller and every request that reads its content have let go. */
+  private class FrameLease(private val frame: YuvJpegEncoder.Frame) {
+    private val references = AtomicInteger(1)
+
+    fun retain(): () -> Unit {
+      references.incrementAndGet()
+      return ::release
+    }
+
+    fun release() {
+      if (references.decrementAndGet() == 0) frame.close()
+    }
+  }
+
+  private fun createAnnotateImageRequest(imageContent: ByteString): AnnotateImageRequest {
+    val image = GCVImage.newBuilder().setContent(imageContent)
     val features = Feature.newBuilder().setType(Feature.Type.OBJECT_LOCALIZATION)
     return AnnotateImageRequest.newBuilder()
       .setImage(image)
@@ -0,0 +1,137 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import android.graphics.Rect
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import com.google.ar.core.examples.kotlin.ml.utils.LumaThumbnail
+import kotlin.math.roundToInt
+
+/**
+ * Remembers recent detection results so that scanning the same scene again is answered locally. A
+ * frame matches an entry when the camera pose falls into the same quantized cell and the difference
+ * hash of its luma plane is within [maxHashDistance] bits. Entries expire after [ttlMillis] and the
+ * least recently used ones are dropped beyond [maxEntries].
+ */
+class DetectionCache(
+  val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+  val ttlMillis: Long = DEFAULT_TTL_MILLIS,
+  val maxHashDistance: Int = DEFAULT_MAX_HASH_DISTANCE,
+  val positionStepMeters: Float = DEFAULT_POSITION_STEP_METERS,
+  val directionStep: Float = DEFAULT_DIRECTION_STEP
+) {
+  companion object {
+    const val DEFAULT_MAX_ENTRIES = 32
+    const val DEFAULT_TTL_MILLIS = 30_000L
+    const val DEFAULT_MAX_HASH_DISTANCE = 6
+    const val DEFAULT_POSITION_STEP_METERS = 0.1f
+
+    // Roughly 6 degrees of the viewing direction
+    const val DEFAULT_DIRECTION_STEP = 0.1f
+
+    private const val HASH_COLUMNS = 9
+    private const val HASH_ROWS = 8
+    private const val SAMPLES_PER_CELL = 4
+
+    /**
+     * 64-bit difference hash of the Y plane: each bit tells whether a cell of a 9x8 grid is brighter
+     * than its right neighbour. Cells are averaged from a sparse 4x4 sample so the whole hash reads
+     * about a thousand bytes.
+     */
+    fun fingerprint(image: YuvFrame): Long {
+      val plane = image.planes[0]
+      val cells = ByteArray(HASH_COLUMNS * HASH_ROWS)
+      LumaThumbnail.sample(
+        plane.buffer, plane.rowStride, plane.pixelStride, image.width, image.height,
+        cells, HASH_COLUMNS, HASH_ROWS, SAMPLES_PER_CELL
+      )
+
+      var hash = 0L
+      for (cellY in 0 until HASH_ROWS) {
+        for (cellX in 0 until HASH_COLUMNS - 1) {
+          val index = cellY * HASH_COLUMNS + cellX
+          val brighter = (cells[index].toInt() and 0xff) > (cells[index + 1].toInt() and 0xff)
+          hash = (hash shl 1) or if (brighter) 1L else 0L
+        }
+      }
+      return hash
+    }
+  }
+
+  data class Key(val poseCell: PoseCell, val fingerprint: Long, val crop: Rect? = null)
+
+  data class PoseCell(val x: Int, val y: Int, val z: Int, val dx: Int, val dy: Int, val dz: Int)
+
+  private class Entry(val key: Key, val results: DetectionResults, val createdNanos: Long)
+
+  private val entries = LinkedHashMap<Key, Entry>(maxEntries, 0.75f, true)
+  private var hits = 0L
+  private var misses = 0L
+
+  init {
+    require(maxEntries > 0) { "Cache must hold at least one entry" }
+    require(ttlMillis > 0) { "Entry lifetime must be positive, was $ttlMillis" }
+    require(positionStepMeters > 0f && directionStep > 0f) { "Pose quantization steps must be positive" }
+  }
+
+  fun keyOf(image: YuvFrame, cameraPose: Pose, crop: Rect? = null): Key = Key(quantize(cameraPose), fingerprint(image), crop)
+
+  @Synchronized
+  fun get(key: Key, nowNanos: Long = System.nanoTime()): DetectionResults? {
+    val ttlNanos = ttlMillis * 1_000_000L
+    var match: Entry? = null
+    val iterator = entries.values.iterator()
+    while (iterator.hasNext()) {
+      val entry = iterator.next()
+      if (nowNanos - entry.createdNanos > ttlNanos) {
+        iterator.remove()
+      } else if (match == null && entry.key.poseCell == key.poseCell && entry.key.crop == key.crop &&
+        (entry.key.fingerprint xor key.fingerprint).countOneBits() <= maxHashDistance) {
+        match = entry
+      }
+    }
+
+    if (match == null) {
+      misses++
+      return null
+    }
+    hits++
+    // Refresh the match's position in the access order
+    entries[match.key]
+    return match.results
+  }
+
+  @Synchronized
+  fun put(key: Key, results: DetectionResults, nowNanos: Long = System.nanoTime()) {
+    entries[key] = Entry(key, results, nowNanos)
+    val iterator = entries.values.iterator()
+    while (entries.size > maxEntries && iterator.hasNext()) {
+      iterator.next()
+      iterator.remove()
+    }
+  }
+
+  @Synchronized
+  fun clear() = entries.clear()
+
+  @get:Synchronized val hitCount: Long
+    get() = hits
+
+  @get:Synchronized val missCount: Long
+    get() = misses
+
+  @get:Synchronized val hitRate: Float
+    get() = if (hits + misses == 0L) 0f else hits.toFloat() / (hits + misses)
+
+  private fun quantize(pose: Pose): PoseCell {
+    // The camera looks down its negative Z axis
+    val direction = pose.zAxis
+    return PoseCell(
+      (pose.tx() / positionStepMeters).roundToInt(),
+      (pose.ty() / positionStepMeters).roundToInt(),
+      (pose.tz() / positionStepMeters).roundToInt(),
+      (-direction[0] / directionStep).roundToInt(),
+      (-direction[1] / directionStep).roundToInt(),
+      (-direction[2] / directionStep).roundToInt()
+    )
+  }
+}
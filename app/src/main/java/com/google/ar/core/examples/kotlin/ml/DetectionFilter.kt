@@ -0,0 +1,85 @@
+package com.google.ar.core.examples.kotlin.ml
+
+/**
+ * Post-processes detector output before it reaches the GL thread: drops results below their
+ * label's confidence floor, suppresses boxes of the same label that overlap a more confident one
+ * by more than [iouThreshold], and keeps at most [maxResults] of the most confident survivors.
+ */
+class DetectionFilter(
+  val minConfidence: Float = DEFAULT_MIN_CONFIDENCE,
+  val minConfidenceByLabel: Map<String, Float> = emptyMap(),
+  val iouThreshold: Float = DEFAULT_IOU_THRESHOLD,
+  val maxResults: Int = DEFAULT_MAX_RESULTS,
+  val suppressAcrossLabels: Boolean = false
+) {
+  companion object {
+    const val DEFAULT_MIN_CONFIDENCE = 0.5f
+    const val DEFAULT_IOU_THRESHOLD = 0.5f
+    const val DEFAULT_MAX_RESULTS = 5
+  }
+
+  // Labels are matched case-insensitively; floors are resolved once per interned label id
+  private val floors = minConfidenceByLabel.mapKeys { it.key.lowercase() }
+  private var floorsById = FloatArray(0)
+
+  init {
+    require(iouThreshold in 0f..1f) { "IoU threshold must be in 0..1, was $iouThreshold" }
+    require(maxResults > 0) { "At least one result must be kept, was $maxResults" }
+  }
+
+  fun apply(results: DetectionResults): DetectionResults {
+    // Candidates above their floor, ordered by descending score
+    val order = IntArray(results.size)
+    var candidates = 0
+    for (i in 0 until results.size) {
+      val score = results.scores[i]
+      if (score < floorFor(results.labelIds[i])) continue
+      var j = candidates++
+      while (j > 0 && results.scores[order[j - 1]] < score) {
+        order[j] = order[j - 1]
+        j--
+      }
+      order[j] = i
+    }
+
+    // Greedy suppression keeps survivors at the front of the order
+    var kept = 0
+    for (k in 0 until candidates) {
+      if (kept == maxResults) break
+      val candidate = order[k]
+      var suppressed = false
+      for (m in 0 until kept) {
+        val other = order[m]
+        if ((suppressAcrossLabels || results.labelIds[other] == results.labelIds[candidate]) &&
+          results.intersectionOverUnion(candidate, other) > iouThreshold) {
+          suppressed = true
+          break
+        }
+      }
+      if (!suppressed) order[kept++] = candidate
+    }
+    return if (kept == results.size && isInOrder(order, kept)) results else results.select(order, kept)
+  }
+
+  @Synchronized
+  private fun floorFor(labelId: Int): Float {
+    if (labelId >= floorsById.size) {
+      val grown = FloatArray(maxOf(labelId + 1, floorsById.size * 2)) { Float.NaN }
+      floorsById.copyInto(grown)
+      floorsById = grown
+    }
+    var floor = floorsById[labelId]
+    if (floor.isNaN()) {
+      floor = floors[DetectionResults.labelName(labelId).lowercase()] ?: minConfidence
+      floorsById[labelId] = floor
+    }
+    return floor
+  }
+
+  private fun isInOrder(order: IntArray, count: Int): Boolean {
+    for (k in 0 until count) {
+      if (order[k] != k) return false
+    }
+    return true
+  }
+}
@@ -0,0 +1,108 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import android.media.Image
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.kotlin.ml.utils.LumaThumbnail
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
+import kotlin.math.acos
+import kotlin.math.sqrt
+
+/**
+ * Lets a frame through to the detector only when the view has materially changed since the last
+ * accepted one: the camera moved by [minTranslationMeters] or turned by [minRotationDegrees], the
+ * downsampled luma differs by [minFrameDifference] on average, or [maxAgeMillis] have passed so
+ * results never go completely stale. Decisions are counted for metrics. Used from the GL thread.
+ */
+class DetectionGate(
+  var minTranslationMeters: Float = DEFAULT_MIN_TRANSLATION_METERS,
+  var minRotationDegrees: Float = DEFAULT_MIN_ROTATION_DEGREES,
+  var minFrameDifference: Float = DEFAULT_MIN_FRAME_DIFFERENCE,
+  var maxAgeMillis: Long = DEFAULT_MAX_AGE_MILLIS
+) {
+  companion object {
+    const val DEFAULT_MIN_TRANSLATION_METERS = 0.15f
+    const val DEFAULT_MIN_ROTATION_DEGREES = 10f
+    const val DEFAULT_MIN_FRAME_DIFFERENCE = 12f
+    const val DEFAULT_MAX_AGE_MILLIS = 15_000L
+
+    private const val THUMBNAIL_COLUMNS = 16
+    private const val THUMBNAIL_ROWS = 12
+  }
+
+  enum class Decision { FIRST, MOTION, CHANGE, AGE, REJECTED }
+
+  private val counts = Array(Decision.values().size) { AtomicLong() }
+  private var acceptedPose: Pose? = null
+  private var acceptedNanos = 0L
+  private var acceptedThumbnail = ByteArray(THUMBNAIL_COLUMNS * THUMBNAIL_ROWS)
+  private var thumbnail = ByteArray(THUMBNAIL_COLUMNS * THUMBNAIL_ROWS)
+
+  /** Pose checks come first, so the luma plane of [image] is only sampled for a camera that held still. */
+  fun evaluate(cameraPose: Pose, image: Image, nowNanos: Long = System.nanoTime()): Decision {
+    val previousPose = acceptedPose
+    val decision = when {
+      previousPose == null -> Decision.FIRST
+      nowNanos - acceptedNanos >= maxAgeMillis * 1_000_000L -> Decision.AGE
+      translation(previousPose, cameraPose) >= minTranslationMeters ||
+        rotationDegrees(previousPose, cameraPose) >= minRotationDegrees -> Decision.MOTION
+      else -> {
+        sampleThumbnail(image, thumbnail)
+        if (meanDifference(thumbnail, acceptedThumbnail) >= minFrameDifference) Decision.CHANGE else Decision.REJECTED
+      }
+    }
+    counts[decision.ordinal].incrementAndGet()
+
+    if (decision != Decision.REJECTED) {
+      // The change check already sampled this frame; every other accept still needs its thumbnail
+      if (decision != Decision.CHANGE) sampleThumbnail(image, thumbnail)
+      val swap = acceptedThumbnail
+      acceptedThumbnail = thumbnail
+      thumbnail = swap
+      acceptedPose = cameraPose
+      acceptedNanos = nowNanos
+    }
+    return decision
+  }
+
+  fun reset() {
+    acceptedPose = null
+  }
+
+  fun count(decision: Decision): Long = counts[decision.ordinal].get()
+
+  val acceptedCount: Long
+    get() = counts.sumOf { it.get() } - count(Decision.REJECTED)
+
+  val rejectedCount: Long
+    get() = count(Decision.REJECTED)
+
+  private fun translation(a: Pose, b: Pose): Float {
+    val dx = a.tx() - b.tx()
+    val dy = a.ty() - b.ty()
+    val dz = a.tz() - b.tz()
+    return sqrt(dx * dx + dy * dy + dz * dz)
+  }
+
+  private fun rotationDegrees(a: Pose, b: Pose): Float {
+    val dot = abs(a.qx() * b.qx() + a.qy() * b.qy() + a.qz() * b.qz() + a.qw() * b.qw()).coerceAtMost(1f)
+    return Math.toDegrees(2.0 * acos(dot.toDouble())).toFloat()
+  }
+
+  /** Averages a 2x2 sample in each thumbnail cell of the Y plane. */
+  private fun sampleThumbnail(image: Image, output: ByteArray) {
+    val plane = image.planes[0]
+    LumaThumbnail.sample(
+      plane.buffer, plane.rowStride, plane.pixelStride, image.width, image.height,
+      output, THUMBNAIL_COLUMNS, THUMBNAIL_ROWS, samplesPerCell = 2
+    )
+  }
+
+  private fun meanDifference(a: ByteArray, b: ByteArray): Float {
+    var sum = 0
+    for (i in a.indices) {
+      sum += abs((a[i].toInt() and 0xff) - (b[i].toInt() and 0xff))
+    }
+    return sum.toFloat() / a.size
+  }
+}
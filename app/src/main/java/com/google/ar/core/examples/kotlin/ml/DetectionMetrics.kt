@@ -0,0 +1,72 @@
+package com.google.ar.core.examples.kotlin.ml
+
+/**
+ * Per-stage timings of the detection pipeline and the size of every uploaded payload. Stages are
+ * recorded from whichever thread runs them, into lock-free [StageHistogram]s of nanoseconds.
+ * Rotation happens while the planes are encoded, so it is part of that stage.
+ */
+class DetectionMetrics {
+  enum class Stage(val label: String) {
+    /** Acquiring the CPU camera image on the GL thread. */
+    ACQUIRE("acquire"),
+    /** Copying the camera planes out of the ARCore image. */
+    COPY("copy"),
+    ENCODE("encode"),
+    BUILD_REQUEST("request"),
+    /** Time until a response arrives, including batching and any hedged duplicate. */
+    RPC("rpc"),
+    PARSE("parse"),
+    /** Hit test and tracker update for one detection on the GL thread. */
+    ANCHOR("anchor"),
+    /** [ObjectDetector.analyze] plus cache lookup and filtering, excluding the wait for a permit. */
+    TOTAL("total")
+  }
+
+  private val stages = Array(Stage.values().size) { StageHistogram() }
+  val payloadBytes = StageHistogram()
+
+  fun histogram(stage: Stage): StageHistogram = stages[stage.ordinal]
+
+  fun record(stage: Stage, nanos: Long) = stages[stage.ordinal].record(nanos)
+
+  inline fun <T> time(stage: Stage, block: () -> T): T {
+    val start = System.nanoTime()
+    try {
+      return block()
+    } finally {
+      record(stage, System.nanoTime() - start)
+    }
+  }
+
+  fun reset() {
+    stages.forEach { it.reset() }
+    payloadBytes.reset()
+  }
+
+  /** One line per stage that has samples, with p50, p95, p99 and max in milliseconds, then payload sizes. */
+  fun dump(): String = buildString {
+    for (stage in Stage.values()) {
+      val histogram = histogram(stage)
+      if (histogram.totalCount == 0L) continue
+      append("%-8s n=%-5d p50=%6.1f p95=%6.1f p99=%6.1f max=%6.1f ms\n".format(
+        stage.label,
+        histogram.totalCount,
+        histogram.percentile(0.50) / 1e6,
+        histogram.percentile(0.95) / 1e6,
+        histogram.percentile(0.99) / 1e6,
+        histogram.maxValue / 1e6
+      ))
+    }
+    if (payloadBytes.totalCount > 0L) {
+      append("%-8s n=%-5d p50=%6.1f p95=%6.1f p99=%6.1f max=%6.1f KiB, %.1f MiB sent\n".format(
+        "payload",
+        payloadBytes.totalCount,
+        payloadBytes.percentile(0.50) / 1024.0,
+        payloadBytes.percentile(0.95) / 1024.0,
+        payloadBytes.percentile(0.99) / 1024.0,
+        payloadBytes.maxValue / 1024.0,
+        payloadBytes.totalSum / (1024.0 * 1024.0)
+      ))
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.google.ar.core.examples.kotlin.ml
+
+/**
+ * Detection results packed into primitive arrays. Boxes and centers are in unrotated image pixels;
+ * [boxes] holds left, top, right, bottom and [centers] holds x, y per result, so the first
+ * `2 * size` values of [centers] can be handed to coordinate transforms as they are. Labels are
+ * interned to ids shared by every container. A container is filled by one thread and only read
+ * once it has been handed on.
+ */
+class DetectionResults(val capacity: Int) {
+  companion object {
+    val EMPTY = DetectionResults(0)
+
+    private val labelIds = HashMap<String, Int>()
+    private val labelNames = ArrayList<String>()
+
+    fun internLabel(label: String): Int = synchronized(labelIds) {
+      labelIds.getOrPut(label) {
+        labelNames.add(label)
+        labelNames.size - 1
+      }
+    }
+
+    fun labelName(labelId: Int): String = synchronized(labelIds) { labelNames[labelId] }
+  }
+
+  val boxes = FloatArray(capacity * 4)
+  val centers = FloatArray(capacity * 2)
+  val scores = FloatArray(capacity)
+  val labelIds = IntArray(capacity)
+
+  var size = 0
+    private set
+
+  fun add(left: Float, top: Float, right: Float, bottom: Float, centerX: Float, centerY: Float, score: Float, labelId: Int) {
+    check(size < capacity) { "Results are full at $capacity entries" }
+    boxes[4 * size] = left
+    boxes[4 * size + 1] = top
+    boxes[4 * size + 2] = right
+    boxes[4 * size + 3] = bottom
+    centers[2 * size] = centerX
+    centers[2 * size + 1] = centerY
+    scores[size] = score
+    labelIds[size] = labelId
+    size++
+  }
+
+  fun isEmpty() = size == 0
+
+  fun label(index: Int) = labelName(labelIds[index])
+
+  fun centerX(index: Int) = centers[2 * index]
+
+  fun centerY(index: Int) = centers[2 * index + 1]
+
+  /** Area of overlap divided by the area of the union of the boxes at [a] and [b]. */
+  fun intersectionOverUnion(a: Int, b: Int): Float {
+    val width = minOf(boxes[4 * a + 2], boxes[4 * b + 2]) - maxOf(boxes[4 * a], boxes[4 * b])
+    val height = minOf(boxes[4 * a + 3], boxes[4 * b + 3]) - maxOf(boxes[4 * a + 1], boxes[4 * b + 1])
+    if (width <= 0f || height <= 0f) return 0f
+    val intersection = width * height
+    val union = area(a) + area(b) - intersection
+    return if (union <= 0f) 0f else intersection / union
+  }
+
+  /** Copies the results at the first [count] entries of [indices], in that order. */
+  fun select(indices: IntArray, count: Int): DetectionResults {
+    val selected = DetectionResults(count)
+    for (k in 0 until count) {
+      val i = indices[k]
+      selected.add(
+        boxes[4 * i], boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3],
+        centers[2 * i], centers[2 * i + 1],
+        scores[i],
+        labelIds[i]
+      )
+    }
+    return selected
+  }
+
+  private fun area(index: Int) =
+    (boxes[4 * index + 2] - boxes[4 * index]) * (boxes[4 * index + 3] - boxes[4 * index + 1])
+}
@@ -0,0 +1,185 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import android.graphics.Rect
+import android.media.Image
+import android.util.Log
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.java.common.helpers.BufferPool
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Runs [ObjectDetector.analyze] off the GL thread. Frames go through a single slot where a newer
+ * frame replaces one that has not been dispatched yet, at most [maxInFlight] requests run at once,
+ * and the newest completed result is handed back through [pollResult] together with the pose its
+ * frame was captured at. None of the methods called from the GL thread block. When a [cache] is
+ * given, frames that match a recent scan from the same camera pose are answered from it without
+ * calling the detector. Results pass through [filter] on the worker's dispatcher, so the GL thread
+ * only hit-tests what survives. Offered images are copied into buffers leased from [pool] straight
+ * away, so ARCore gets them back within the frame.
+ */
+class DetectionWorker(
+  private val detector: ObjectDetector,
+  private val scope: CoroutineScope,
+  val maxInFlight: Int = DEFAULT_MAX_IN_FLIGHT,
+  val cache: DetectionCache? = null,
+  val filter: DetectionFilter? = DetectionFilter(),
+  val pool: BufferPool = BufferPool.getShared()
+) {
+  companion object {
+    private const val TAG = "DetectionWorker"
+    const val DEFAULT_TARGET_RATE_HZ = 1f
+    const val DEFAULT_MAX_IN_FLIGHT = 2
+  }
+
+  /** Detections in image pixels of a frame captured at [cameraPose]. */
+  class Detection(val results: DetectionResults, val cameraPose: Pose?)
+
+  private class PendingFrame(
+    val image: YuvFrame,
+    val imageRotation: Int,
+    val cameraPose: Pose?,
+    val crop: Rect?,
+    val sequence: Long
+  )
+
+  var targetRateHz: Float = DEFAULT_TARGET_RATE_HZ
+    set(value) {
+      require(value > 0f) { "Target rate must be positive, was $value" }
+      field = value
+    }
+
+  private val pendingFrame = AtomicReference<PendingFrame?>()
+  private val completed = AtomicReference<Result<Detection>?>()
+  private val nextSequence = AtomicLong()
+  private val publishedSequence = AtomicLong(-1)
+  private val permits = Semaphore(maxInFlight)
+  private val wakeup = Channel<Unit>(Channel.CONFLATED)
+  @Volatile private var lastOfferNanos = Long.MIN_VALUE / 2
+  private val inFlight = ConcurrentHashMap<Long, Job>()
+  private var job: Job? = null
+
+  init {
+    require(maxInFlight > 0) { "At least one request must be allowed in flight" }
+  }
+
+  /** Whether continuous mode should offer a frame now, given [targetRateHz]. */
+  fun isReadyForFrame(nowNanos: Long = System.nanoTime()): Boolean =
+    nowNanos - lastOfferNanos >= (1_000_000_000L / targetRateHz).toLong()
+
+  /** Counts the current time as an offer without sending a frame, deferring the next one by a rate period. */
+  fun skipFrame() {
+    lastOfferNanos = System.nanoTime()
+  }
+
+  /**
+   * Copies the planes of [image] for analysis; the caller still owns [image] and can close it as
+   * soon as this returns. The copy is released once analyzed or when a newer frame replaces it.
+   */
+  fun offer(image: Image, imageRotation: Int, cameraPose: Pose? = null, crop: Rect? = null) {
+    val copy = detector.metrics.time(DetectionMetrics.Stage.COPY) { YuvFrame.copyOf(image, pool) }
+    offer(copy, imageRotation, cameraPose, crop)
+  }
+
+  /** Takes ownership of an already copied [image]; it is closed once analyzed or replaced. */
+  fun offer(image: YuvFrame, imageRotation: Int, cameraPose: Pose? = null, crop: Rect? = null) {
+    lastOfferNanos = System.nanoTime()
+    val frame = PendingFrame(image, imageRotation, cameraPose, crop, nextSequence.getAndIncrement())
+    pendingFrame.getAndSet(frame)?.image?.close()
+    wakeup.trySend(Unit)
+  }
+
+  fun pollResult(): Result<Detection>? = completed.getAndSet(null)
+
+  fun start() {
+    if (job?.isActive == true) return
+    job = scope.launch(Dispatchers.IO) { run() }
+  }
+
+  /** Abandons every request in flight, e.g. because the user asked for a fresh scan. */
+  fun cancelInFlight() {
+    inFlight.values.forEach { it.cancel() }
+  }
+
+  /**
+   * Abandons the pending frame and every request in flight. The newest abandoned request is
+   * published as a [CancellationException] failure, so a caller waiting on it hears back.
+   */
+  fun stop() {
+    val pending = pendingFrame.getAndSet(null)
+    pending?.image?.close()
+    val abandoned = maxOf(pending?.sequence ?: -1L, inFlight.keys.maxOrNull() ?: -1L)
+    job?.cancel()
+    job = null
+    if (abandoned > publishedSequence.get()) publish(abandoned, Result.failure(CancellationException("Detection stopped")))
+  }
+
+  private suspend fun run() = coroutineScope {
+    while (isActive) {
+      wakeup.receive()
+      permits.acquire()
+      val frame = pendingFrame.getAndSet(null)
+      if (frame == null) {
+        permits.release()
+        continue
+      }
+
+      val analysis = launch(start = CoroutineStart.LAZY) {
+        try {
+          publish(frame.sequence, Result.success(Detection(analyze(frame), frame.cameraPose)))
+        } catch (e: CancellationException) {
+          throw e
+        } catch (e: Exception) {
+          Log.e(TAG, "Detection failed", e)
+          publish(frame.sequence, Result.failure(e))
+        }
+      }
+      // Runs even when the analysis is cancelled before it starts, so the copy always goes back to the pool
+      analysis.invokeOnCompletion {
+        inFlight.remove(frame.sequence)
+        frame.image.close()
+        permits.release()
+        // A frame may have arrived while every permit was taken
+        if (pendingFrame.get() != null) wakeup.trySend(Unit)
+      }
+      inFlight[frame.sequence] = analysis
+      analysis.start()
+    }
+  }
+
+  private suspend fun analyze(frame: PendingFrame): DetectionResults = detector.metrics.time(DetectionMetrics.Stage.TOTAL) {
+    val cache = cache
+    val key = if (cache != null && frame.cameraPose != null) cache.keyOf(frame.image, frame.cameraPose, frame.crop) else null
+    var results = key?.let { cache?.get(it) }
+    if (results == null) {
+      results = detector.analyze(frame.image, frame.imageRotation, frame.crop)
+      key?.let { cache?.put(it, results) }
+    }
+    filter?.apply(results) ?: results
+  }
+
+  private fun publish(sequence: Long, result: Result<Detection>) {
+    // Drop results that finish after a newer frame's result has already been handed over
+    while (true) {
+      val published = publishedSequence.get()
+      if (sequence < published) return
+      if (publishedSequence.compareAndSet(published, sequence)) break
+    }
+    completed.set(result)
+
+    // Older requests could only be dropped now, so stop paying for them
+    inFlight.forEach { (inFlightSequence, analysis) -> if (inFlightSequence < sequence) analysis.cancel() }
+  }
+}
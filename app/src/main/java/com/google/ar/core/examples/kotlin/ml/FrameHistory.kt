@@ -0,0 +1,152 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import android.media.Image
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.java.common.helpers.BufferPool
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import com.google.ar.core.examples.kotlin.ml.utils.LumaThumbnail
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import java.io.Closeable
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Keeps copies of recent camera frames together with the pose each was captured at, so a scan can
+ * send the sharpest frame of the last [windowNanos] instead of whichever frame was current when
+ * Scan was pressed. Each frame is scored on [scope]'s default dispatcher from a downsampled
+ * thumbnail of the central Y plane with the variance of its Laplacian; motion blur flattens edges
+ * and lowers the score.
+ *
+ * A frame is dropped as soon as a newer frame is at least as sharp, since the newer one stays in
+ * the window longer. What is left is ordered from sharpest and oldest to newest, so the head is
+ * always the sharpest frame in the window and at most [maxFrames] full copies are held.
+ */
+class FrameHistory(
+  private val scope: CoroutineScope,
+  val windowNanos: Long = DEFAULT_WINDOW_NANOS,
+  val minIntervalNanos: Long = DEFAULT_MIN_INTERVAL_NANOS,
+  val maxFrames: Int = DEFAULT_MAX_FRAMES,
+  private val pool: BufferPool = BufferPool.getShared()
+) : Closeable {
+  companion object {
+    const val DEFAULT_WINDOW_NANOS = 300_000_000L
+    const val DEFAULT_MIN_INTERVAL_NANOS = 50_000_000L
+    const val DEFAULT_MAX_FRAMES = 8
+
+    private const val THUMBNAIL_WIDTH = 160
+    private const val THUMBNAIL_HEIGHT = 120
+
+    // The central half of the frame, which is where the user aims
+    private const val THUMBNAIL_COVERAGE = 0.5f
+
+    /** Variance of the 4-neighbour Laplacian over the interior of a [width] x [height] thumbnail. */
+    fun sharpness(thumbnail: ByteArray, width: Int, height: Int): Float {
+      var sum = 0.0
+      var sumOfSquares = 0.0
+      for (y in 1 until height - 1) {
+        var index = y * width + 1
+        for (x in 1 until width - 1) {
+          val laplacian = (thumbnail[index - 1].toInt() and 0xff) +
+            (thumbnail[index + 1].toInt() and 0xff) +
+            (thumbnail[index - width].toInt() and 0xff) +
+            (thumbnail[index + width].toInt() and 0xff) -
+            4 * (thumbnail[index].toInt() and 0xff)
+          sum += laplacian
+          sumOfSquares += laplacian * laplacian
+          index++
+        }
+      }
+      val count = (width - 2) * (height - 2)
+      val mean = sum / count
+      return (sumOfSquares / count - mean * mean).toFloat()
+    }
+  }
+
+  class Entry(val frame: YuvFrame, val cameraPose: Pose, val capturedNanos: Long, val sharpness: Float)
+
+  init {
+    require(maxFrames > 0) { "At least one frame must be kept" }
+  }
+
+  private val thumbnail = ByteArray(THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT)
+  private val entries = ArrayDeque<Entry>(maxFrames + 1)
+  private val scoring = AtomicBoolean()
+  @Volatile private var lastRecordNanos = Long.MIN_VALUE / 2
+  private var clearedNanos = Long.MIN_VALUE
+
+  /**
+   * Whether [record] would take a frame now; lets the caller skip acquiring a camera image. Frames
+   * are refused while the previous one is still being scored.
+   */
+  fun isReadyForFrame(nowNanos: Long = System.nanoTime()): Boolean =
+    !scoring.get() && nowNanos - lastRecordNanos >= minIntervalNanos
+
+  /**
+   * Takes ownership of [image]; it is copied and closed off the calling thread, then scored. Call
+   * only after [isReadyForFrame] returned true.
+   */
+  fun record(image: Image, cameraPose: Pose, nowNanos: Long = System.nanoTime()) {
+    lastRecordNanos = nowNanos
+    scoring.set(true)
+    // Atomic, so the image is closed even when the scope is cancelled before this starts
+    scope.launch(Dispatchers.Default, CoroutineStart.ATOMIC) {
+      try {
+        val frame = image.use { YuvFrame.copyOf(it, pool) }
+        record(frame, cameraPose, nowNanos)
+      } finally {
+        scoring.set(false)
+      }
+    }
+  }
+
+  /** Scores [frame] and takes ownership of it. Not reentrant; [record] calls it from one worker at a time. */
+  fun record(frame: YuvFrame, cameraPose: Pose, capturedNanos: Long) {
+    val luma = frame.planes[0]
+    LumaThumbnail.sample(
+      luma.buffer, luma.rowStride, luma.pixelStride, frame.width, frame.height,
+      thumbnail, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, coverage = THUMBNAIL_COVERAGE
+    )
+    add(Entry(frame, cameraPose, capturedNanos, sharpness(thumbnail, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT)))
+  }
+
+  @Synchronized
+  private fun add(entry: Entry) {
+    // Scored after a clear that came later than its capture, e.g. across a pause
+    if (entry.capturedNanos <= clearedNanos) {
+      entry.frame.close()
+      return
+    }
+    evictOlderThan(windowNanos, entry.capturedNanos)
+    while (entries.isNotEmpty() && entries.last().sharpness <= entry.sharpness) {
+      entries.removeLast().frame.close()
+    }
+    entries.addLast(entry)
+    if (entries.size > maxFrames) entries.removeFirst().frame.close()
+  }
+
+  /**
+   * Removes and returns the sharpest frame captured within [maxAgeNanos]. The caller owns the
+   * returned frame and must close it; the newer, less sharp frames stay for the next scan.
+   */
+  @Synchronized
+  fun takeSharpest(maxAgeNanos: Long = windowNanos, nowNanos: Long = System.nanoTime()): Entry? {
+    evictOlderThan(maxAgeNanos, nowNanos)
+    return entries.removeFirstOrNull()
+  }
+
+  private fun evictOlderThan(maxAgeNanos: Long, nowNanos: Long) {
+    while (entries.isNotEmpty() && nowNanos - entries.first().capturedNanos > maxAgeNanos) {
+      entries.removeFirst().frame.close()
+    }
+  }
+
+  @Synchronized
+  fun clear(nowNanos: Long = System.nanoTime()) {
+    clearedNanos = nowNanos
+    while (entries.isNotEmpty()) entries.removeFirst().frame.close()
+  }
+
+  override fun close() = clear()
+}
@@ -0,0 +1,33 @@
+package com.google.ar.core.examples.kotlin.ml
+
+/** Keeps the most recent [capacity] latency samples and answers percentile queries over them. */
+class LatencyWindow(val capacity: Int = DEFAULT_CAPACITY) {
+  companion object {
+    const val DEFAULT_CAPACITY = 64
+  }
+
+  private val samples = LongArray(capacity)
+  private val sorted = LongArray(capacity)
+  private var count = 0
+  private var next = 0
+
+  init {
+    require(capacity > 0) { "Window must hold at least one sample" }
+  }
+
+  @Synchronized
+  fun record(nanos: Long) {
+    samples[next] = nanos
+    next = (next + 1) % capacity
+    count = minOf(count + 1, capacity)
+  }
+
+  /** The [percentile] in 0..1 of the window in milliseconds, or null with fewer than [minSamples] samples. */
+  @Synchronized
+  fun percentileMillis(percentile: Double, minSamples: Int = 1): Long? {
+    if (count == 0 || count < minSamples) return null
+    System.arraycopy(samples, 0, sorted, 0, count)
+    sorted.sort(0, count)
+    return sorted[((count - 1) * percentile).toInt()] / 1_000_000L
+  }
+}
@@ -1,18 +1,17 @@
 package com.google.ar.core.examples.kotlin.ml
 
-import android.content.Context
-import android.graphics.Bitmap
-import android.media.Image
-import com.google.ar.core.examples.kotlin.common.helpers.YuvToRgbConverter
+import android.graphics.Rect
+import com.google.ar.core.examples.java.common.helpers.BufferPool
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import java.io.Closeable
 
-abstract class ObjectDetector(val context: Context) {
-  val yuvConverter = YuvToRgbConverter(context)
+abstract class ObjectDetector : Closeable {
+  val bufferPool: BufferPool = BufferPool.getShared()
+  val metrics = DetectionMetrics()
 
-  abstract suspend fun analyze(image: Image, imageRotation: Int): List<DetectedObjectResult>
+  /** Detects objects in [image], or only inside [crop] in image pixels; results are in full image pixels. */
+  abstract suspend fun analyze(image: YuvFrame, imageRotation: Int, crop: Rect? = null): DetectionResults
 
-  fun convertYuv(image: Image): Bitmap {
-    return Bitmap.createBitmap(image.width, image.height, Bitmap.Config.ARGB_8888).apply {
-      yuvConverter.yuvToRgb(image, this)
-    }
-  }
+  /** Starts preparing the detector in the background so the first [analyze] does not pay for it. */
+  open fun prewarm() {}
 }
@@ -0,0 +1,77 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.ceil
+
+/**
+ * Lock-free log-linear histogram of non-negative values. Every power of two is split into
+ * 2^[SUB_BUCKET_BITS] buckets, so percentiles are exact below 8 and within 12.5% above, and
+ * [record] is a handful of atomic adds from any thread.
+ */
+class StageHistogram {
+  companion object {
+    private const val SUB_BUCKET_BITS = 3
+    private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+    private const val BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+
+    private fun bucketOf(value: Long): Int {
+      if (value < SUB_BUCKETS) return value.toInt()
+      val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+      val subBucket = (value ushr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket
+    }
+
+    /** Largest value that falls into [bucket]. */
+    private fun upperBoundOf(bucket: Int): Long {
+      if (bucket < SUB_BUCKETS) return bucket.toLong()
+      val shift = bucket / SUB_BUCKETS - 1
+      return ((SUB_BUCKETS + bucket % SUB_BUCKETS + 1).toLong() shl shift) - 1
+    }
+  }
+
+  private val buckets = AtomicLongArray(BUCKET_COUNT)
+  private val count = AtomicLong()
+  private val sum = AtomicLong()
+  private val max = AtomicLong()
+
+  fun record(value: Long) {
+    val clamped = value.coerceAtLeast(0L)
+    buckets.incrementAndGet(bucketOf(clamped))
+    count.incrementAndGet()
+    sum.addAndGet(clamped)
+    max.accumulateAndGet(clamped, ::maxOf)
+  }
+
+  val totalCount: Long
+    get() = count.get()
+
+  val totalSum: Long
+    get() = sum.get()
+
+  val maxValue: Long
+    get() = max.get()
+
+  /** Upper bound of the bucket holding the [percentile] in 0..1, or 0 when nothing was recorded. */
+  fun percentile(percentile: Double): Long {
+    // Buckets can move while they are read, so rank against the counts actually seen
+    var seen = 0L
+    for (i in 0 until BUCKET_COUNT) seen += buckets.get(i)
+    if (seen == 0L) return 0L
+
+    val rank = maxOf(1L, ceil(seen * percentile).toLong())
+    var cumulative = 0L
+    for (i in 0 until BUCKET_COUNT) {
+      cumulative += buckets.get(i)
+      if (cumulative >= rank) return minOf(upperBoundOf(i), maxValue)
+    }
+    return maxValue
+  }
+
+  fun reset() {
+    for (i in 0 until BUCKET_COUNT) buckets.set(i, 0L)
+    count.set(0L)
+    sum.set(0L)
+    max.set(0L)
+  }
+}
@@ -0,0 +1,83 @@
+package com.google.ar.core.examples.kotlin.ml.backend
+
+import android.content.Context
+import android.util.Log
+import com.google.api.gax.core.NoCredentialsProvider
+import com.google.api.core.ApiFutureCallback
+import com.google.api.core.ApiFutures
+import com.google.api.gax.grpc.GrpcCallContext
+import com.google.api.gax.grpc.GrpcTransportChannel
+import com.google.api.gax.rpc.ApiException
+import com.google.api.gax.rpc.FixedTransportChannelProvider
+import com.google.auth.oauth2.GoogleCredentials
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse
+import com.google.cloud.vision.v1.ImageAnnotatorClient
+import com.google.cloud.vision.v1.ImageAnnotatorSettings
+import com.google.common.util.concurrent.MoreExecutors
+import io.grpc.CallOptions
+import io.grpc.ManagedChannel
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+class ImageAnnotatorBackend(val client: ImageAnnotatorClient) : VisionBackend {
+  companion object {
+    private const val TAG = "ImageAnnotatorBackend"
+
+    /** Connects to Cloud Vision with the service account in res/raw/credentials.json. */
+    fun fromRawCredentials(context: Context): ImageAnnotatorBackend {
+      val credentials = try {
+        val res = context.resources.getIdentifier("credentials", "raw", context.packageName)
+        if (res == 0) error("Missing GCP credentials in res/raw/credentials.json.")
+        GoogleCredentials.fromStream(context.resources.openRawResource(res))
+      } catch (e: Exception) {
+        Log.e(TAG, "Unable to create Google credentials from res/raw/credentials.json. Cloud ML will be disabled.", e)
+        null
+      }
+
+      val settings = ImageAnnotatorSettings.newBuilder().setCredentialsProvider { credentials }.build()
+      return ImageAnnotatorBackend(ImageAnnotatorClient.create(settings))
+    }
+
+    /** Talks to whatever serves [channel], such as the fake server used by tests. The caller keeps ownership of the channel. */
+    fun forChannel(channel: ManagedChannel): ImageAnnotatorBackend {
+      val settings = ImageAnnotatorSettings.newBuilder()
+        .setTransportChannelProvider(FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel)))
+        .setCredentialsProvider(NoCredentialsProvider.create())
+        .build()
+      return ImageAnnotatorBackend(ImageAnnotatorClient.create(settings))
+    }
+  }
+
+  override fun batchAnnotateImagesAsync(request: BatchAnnotateImagesRequest, timeoutMillis: Long): CompletableFuture<BatchAnnotateImagesResponse> {
+    var context = GrpcCallContext.createDefault()
+    if (timeoutMillis > 0) {
+      context = context.withCallOptions(CallOptions.DEFAULT.withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS))
+    }
+    val call = client.batchAnnotateImagesCallable().futureCall(request, context)
+
+    val result = CompletableFuture<BatchAnnotateImagesResponse>()
+    ApiFutures.addCallback(call, object : ApiFutureCallback<BatchAnnotateImagesResponse> {
+      override fun onSuccess(response: BatchAnnotateImagesResponse) {
+        result.complete(response)
+      }
+
+      override fun onFailure(t: Throwable) {
+        result.completeExceptionally(t)
+      }
+    }, MoreExecutors.directExecutor())
+    result.whenComplete { _, _ -> if (result.isCancelled) call.cancel(true) }
+    return result
+  }
+
+  override fun prewarm() {
+    // An empty batch is rejected by the service, but only after the channel is connected and the token fetched
+    try {
+      client.batchAnnotateImages(BatchAnnotateImagesRequest.getDefaultInstance())
+    } catch (e: ApiException) {
+      Log.d(TAG, "Prewarm finished with ${e.statusCode.code}")
+    }
+  }
+
+  override fun close() = client.close()
+}
@@ -0,0 +1,22 @@
+package com.google.ar.core.examples.kotlin.ml.backend
+
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Defers creating a backend until it is first used. Requests that arrive while another thread is
+ * still creating it wait for that creation to finish instead of starting their own.
+ */
+class LazyVisionBackend(factory: () -> VisionBackend) : VisionBackend {
+  private val delegate = lazy(LazyThreadSafetyMode.SYNCHRONIZED, factory)
+
+  override fun batchAnnotateImagesAsync(request: BatchAnnotateImagesRequest, timeoutMillis: Long): CompletableFuture<BatchAnnotateImagesResponse> =
+    delegate.value.batchAnnotateImagesAsync(request, timeoutMillis)
+
+  override fun prewarm() = delegate.value.prewarm()
+
+  override fun close() {
+    if (delegate.isInitialized()) delegate.value.close()
+  }
+}
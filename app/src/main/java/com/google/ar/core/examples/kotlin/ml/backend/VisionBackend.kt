@@ -0,0 +1,18 @@
+package com.google.ar.core.examples.kotlin.ml.backend
+
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse
+import java.io.Closeable
+import java.util.concurrent.CompletableFuture
+
+/** A service that answers Cloud Vision `batchAnnotateImages` requests. Implementations must be thread safe. */
+interface VisionBackend : Closeable {
+  /**
+   * Starts a call that fails with a deadline error after [timeoutMillis], or never when it is 0.
+   * Cancelling the returned future aborts the call; until it completes, [request] may still be read.
+   */
+  fun batchAnnotateImagesAsync(request: BatchAnnotateImagesRequest, timeoutMillis: Long): CompletableFuture<BatchAnnotateImagesResponse>
+
+  /** Sets up connections and credentials ahead of the first request. Blocks until done. */
+  fun prewarm() {}
+}
@@ -0,0 +1,189 @@
+package com.google.ar.core.examples.kotlin.ml.render
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Typeface
+import android.opengl.GLES30
+import com.google.ar.core.examples.java.common.helpers.BufferPool
+import com.google.ar.core.examples.java.common.samplerender.GLError
+import com.google.ar.core.examples.java.common.samplerender.SampleRender
+import com.google.ar.core.examples.java.common.samplerender.Texture
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Label strings rasterized into fixed-size slots of one shared texture, whose level 0 fits in
+ * [budgetBytes]. Strings are drawn on [scope] off the GL thread and uploaded by [update]; once every
+ * slot is taken, the least recently used label that was not needed this frame gives up its slot.
+ * Everything but rasterization runs on the GL thread.
+ */
+class LabelAtlas(
+  private val scope: CoroutineScope,
+  val budgetBytes: Int = DEFAULT_BUDGET_BYTES
+) {
+  companion object {
+    private const val TAG = "LabelAtlas"
+    const val DEFAULT_BUDGET_BYTES = 4 * 1024 * 1024
+    const val SLOT_WIDTH = 256
+    const val SLOT_HEIGHT = 64
+    private const val ATLAS_WIDTH = 1024
+    private const val COLUMNS = ATLAS_WIDTH / SLOT_WIDTH
+    private const val BYTES_PER_PIXEL = 4
+    // Slots start on multiples of four texels, so mip levels up to 2 never blend neighbouring slots
+    private const val MAX_MIPMAP_LEVEL = 2
+  }
+
+  private class Entry(val label: String, val slot: Int) {
+    var ready = false
+    var evicted = false
+    var lastUsedFrame = 0L
+  }
+
+  private class Upload(val entry: Entry, val pixels: ByteBuffer)
+
+  val slotCount = maxOf(1, budgetBytes / (SLOT_WIDTH * SLOT_HEIGHT * BYTES_PER_PIXEL))
+  val width = ATLAS_WIDTH
+  val height = (slotCount + COLUMNS - 1) / COLUMNS * SLOT_HEIGHT
+  lateinit var texture: Texture
+    private set
+
+  // Access ordered, so iteration starts at the least recently used label
+  private val entries = LinkedHashMap<String, Entry>(slotCount, 0.75f, true)
+  private val freeSlots = ArrayDeque<Int>(slotCount)
+  private val uploads = ConcurrentLinkedQueue<Upload>()
+  private val bufferPool = BufferPool.getShared()
+  private var frame = 0L
+
+  /** Labels that lost their slot to a newer one since the atlas was created. */
+  var evictionCount = 0L
+    private set
+
+  private val textPaint = Paint().apply {
+    textSize = 26f
+    setARGB(0xff, 0xea, 0x43, 0x35)
+    style = Paint.Style.FILL
+    isAntiAlias = true
+    textAlign = Paint.Align.CENTER
+    typeface = Typeface.DEFAULT_BOLD
+    strokeWidth = 2f
+  }
+
+  private val strokePaint = Paint(textPaint).apply {
+    setARGB(0xff, 0x00, 0x00, 0x00)
+    style = Paint.Style.STROKE
+  }
+
+  /** Allocates the atlas texture; every label is rasterized again afterwards. */
+  fun onSurfaceCreated(render: SampleRender) {
+    texture = Texture(render, Texture.Target.TEXTURE_2D, Texture.WrapMode.CLAMP_TO_EDGE)
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture.textureId)
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture")
+    GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAX_LEVEL, MAX_MIPMAP_LEVEL)
+    GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri")
+    GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA8, width, height, 0, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null)
+    GLError.maybeThrowGLException("Failed to allocate texture", "glTexImage2D")
+    GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_2D)
+    GLError.maybeThrowGLException("Failed to generate mipmaps", "glGenerateMipmap")
+
+    entries.values.forEach { it.evicted = true }
+    entries.clear()
+    freeSlots.clear()
+    for (slot in slotCount - 1 downTo 0) freeSlots.addLast(slot)
+  }
+
+  /**
+   * Marks [label] as used this frame and writes its rectangle in the atlas to [output] as u, v,
+   * width and height. Returns false while the label is still being rasterized or when no slot can
+   * be freed for it.
+   */
+  fun find(label: String, output: FloatArray, offset: Int = 0): Boolean {
+    val entry = entries[label] ?: allocate(label) ?: return false
+    entry.lastUsedFrame = frame
+    if (!entry.ready) return false
+
+    output[offset] = (entry.slot % COLUMNS * SLOT_WIDTH).toFloat() / width
+    output[offset + 1] = (entry.slot / COLUMNS * SLOT_HEIGHT).toFloat() / height
+    output[offset + 2] = SLOT_WIDTH.toFloat() / width
+    output[offset + 3] = SLOT_HEIGHT.toFloat() / height
+    return true
+  }
+
+  /** Uploads the labels rasterized since the last call and starts a new frame of usage. */
+  fun update() {
+    var uploaded = false
+    while (true) {
+      val upload = uploads.poll() ?: break
+      try {
+        val entry = upload.entry
+        if (entry.evicted) continue
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture.textureId)
+        GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture")
+        GLES30.glTexSubImage2D(
+          GLES30.GL_TEXTURE_2D,
+          0,
+          entry.slot % COLUMNS * SLOT_WIDTH,
+          entry.slot / COLUMNS * SLOT_HEIGHT,
+          SLOT_WIDTH,
+          SLOT_HEIGHT,
+          GLES30.GL_RGBA,
+          GLES30.GL_UNSIGNED_BYTE,
+          upload.pixels
+        )
+        GLError.maybeThrowGLException("Failed to populate texture data", "glTexSubImage2D")
+        entry.ready = true
+        uploaded = true
+      } finally {
+        bufferPool.releaseDirectBuffer(upload.pixels)
+      }
+    }
+    if (uploaded) {
+      GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_2D)
+      GLError.maybeThrowGLException("Failed to generate mipmaps", "glGenerateMipmap")
+    }
+    frame++
+  }
+
+  private fun allocate(label: String): Entry? {
+    val slot = freeSlots.removeLastOrNull() ?: evictLeastRecentlyUsed() ?: return null
+    val entry = Entry(label, slot)
+    entries[label] = entry
+    scope.launch(Dispatchers.Default) {
+      uploads.add(Upload(entry, rasterize(label)))
+    }
+    return entry
+  }
+
+  private fun evictLeastRecentlyUsed(): Int? {
+    val eldest = entries.values.firstOrNull() ?: return null
+    // Every slot is on screen this frame
+    if (eldest.lastUsedFrame == frame) return null
+    entries.remove(eldest.label)
+    eldest.evicted = true
+    evictionCount++
+    return eldest.slot
+  }
+
+  private fun rasterize(label: String): ByteBuffer {
+    val bitmap = bufferPool.acquireBitmap(SLOT_WIDTH, SLOT_HEIGHT, Bitmap.Config.ARGB_8888)
+    try {
+      bitmap.eraseColor(0)
+      // Paint is not documented as thread safe, so concurrent jobs take turns with it
+      synchronized(textPaint) {
+        Canvas(bitmap).apply {
+          drawText(label, SLOT_WIDTH / 2f, SLOT_HEIGHT / 2f, strokePaint)
+          drawText(label, SLOT_WIDTH / 2f, SLOT_HEIGHT / 2f, textPaint)
+        }
+      }
+      val pixels = bufferPool.acquireDirectBuffer(bitmap.byteCount)
+      bitmap.copyPixelsToBuffer(pixels)
+      pixels.rewind()
+      return pixels
+    } finally {
+      bufferPool.releaseBitmap(bitmap)
+    }
+  }
+}
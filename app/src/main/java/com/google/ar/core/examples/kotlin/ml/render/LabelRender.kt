@@ -5,21 +5,28 @@ import com.google.ar.core.examples.java.common.samplerender.Mesh
 import com.google.ar.core.examples.java.common.samplerender.SampleRender
 import com.google.ar.core.examples.java.common.samplerender.Shader
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer
+import kotlinx.coroutines.CoroutineScope
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 
-class LabelRender {
+/** Billboarded text labels, collected with [add] and drawn from a [LabelAtlas] in one call. */
+class LabelRender(scope: CoroutineScope, val maxLabels: Int = DEFAULT_MAX_LABELS) {
   companion object {
     private const val TAG = "LabelRender"
+    const val DEFAULT_MAX_LABELS = 64
     val COORDS_BUFFER_SIZE = 2 * 4 * 4
 
+    // Same scale as a slot's width, with the height cut to the slot's aspect ratio
+    private const val QUAD_HALF_WIDTH = 1.5f
+    private const val QUAD_HALF_HEIGHT = QUAD_HALF_WIDTH * LabelAtlas.SLOT_HEIGHT / LabelAtlas.SLOT_WIDTH
+
     val NDC_QUAD_COORDS_BUFFER =
       ByteBuffer.allocateDirect(COORDS_BUFFER_SIZE).order(ByteOrder.nativeOrder()).asFloatBuffer().apply {
         put(floatArrayOf(
-            -1.5f, -1.5f,
-            1.5f, -1.5f,
-            -1.5f, 1.5f,
-            1.5f, 1.5f,
+            -QUAD_HALF_WIDTH, -QUAD_HALF_HEIGHT,
+            QUAD_HALF_WIDTH, -QUAD_HALF_HEIGHT,
+            -QUAD_HALF_WIDTH, QUAD_HALF_HEIGHT,
+            QUAD_HALF_WIDTH, QUAD_HALF_HEIGHT,
           )
         )
       }
@@ -36,36 +43,67 @@ class LabelRender {
       }
   }
 
-  val cache = TextTextureCache()
+  val atlas = LabelAtlas(scope)
   lateinit var mesh: Mesh
   lateinit var shader: Shader
+  private lateinit var viewProjectionUniform: Shader.FloatsUniform
+  private lateinit var cameraPositionUniform: Shader.FloatsUniform
+  lateinit var originBuffer: VertexBuffer
+  lateinit var atlasRectBuffer: VertexBuffer
+
+  private val origins =
+    ByteBuffer.allocateDirect(3 * maxLabels * 4).order(ByteOrder.nativeOrder()).asFloatBuffer()
+  private val atlasRects =
+    ByteBuffer.allocateDirect(4 * maxLabels * 4).order(ByteOrder.nativeOrder()).asFloatBuffer()
+  private val atlasRect = FloatArray(4)
+  private var labelCount = 0
 
   fun onSurfaceCreated(render: SampleRender) {
+    atlas.onSurfaceCreated(render)
     shader = Shader.createFromAssets(render, "shaders/label.vert", "shaders/label.frag", null)
       .setBlend(Shader.BlendFactor.ONE, Shader.BlendFactor.ONE_MINUS_SRC_ALPHA)
       .setDepthTest(false)
       .setDepthWrite(false)
+      .setTexture("uTexture", atlas.texture)
+    viewProjectionUniform = shader.getMat4Uniform("u_ViewProjection")
+    cameraPositionUniform = shader.getVec3Uniform("u_CameraPos")
 
     val vertexBuffers = arrayOf(
       VertexBuffer(render, 2, NDC_QUAD_COORDS_BUFFER),
       VertexBuffer(render, 2, SQUARE_TEX_COORDS_BUFFER),
     )
+    originBuffer = VertexBuffer(render, 3, null)
+    atlasRectBuffer = VertexBuffer(render, 4, null)
 
-    mesh = Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, null, vertexBuffers)
+    mesh = Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, null, vertexBuffers, arrayOf(originBuffer, atlasRectBuffer))
   }
 
-  val labelOrigin = FloatArray(3)
+  /** Queues [label] above [pose] for the next [draw]; labels still being rasterized are skipped. */
+  fun add(pose: Pose, label: String) {
+    if (labelCount == maxLabels || !atlas.find(label, atlasRect)) return
+    origins.put(pose.tx()).put(pose.ty()).put(pose.tz())
+    atlasRects.put(atlasRect)
+    labelCount++
+  }
 
-  fun draw(render: SampleRender, viewProjectionMatrix: FloatArray, pose: Pose, cameraPose: Pose, label: String) {
-    labelOrigin[0] = pose.tx()
-    labelOrigin[1] = pose.ty()
-    labelOrigin[2] = pose.tz()
+  /** Draws every label added since the last call. */
+  fun draw(render: SampleRender, viewProjectionMatrix: FloatArray, cameraPosition: FloatArray) {
+    atlas.update()
+    origins.flip()
+    atlasRects.flip()
+    originBuffer.set(origins)
+    atlasRectBuffer.set(atlasRects)
+
+    viewProjectionUniform.set(viewProjectionMatrix)
+    cameraPositionUniform.set(cameraPosition)
+    render.drawInstanced(mesh, shader, null, labelCount)
+    clear()
+  }
 
-    shader
-      .setMat4("u_ViewProjection", viewProjectionMatrix)
-      .setVec3("u_LabelOrigin", labelOrigin)
-      .setVec3("u_CameraPos", cameraPose.translation)
-      .setTexture("uTexture", cache.get(render, label))
-    render.draw(mesh, shader)
+  /** Drops the labels added since the last [draw]. */
+  fun clear() {
+    origins.clear()
+    atlasRects.clear()
+    labelCount = 0
   }
 }
@@ -0,0 +1,46 @@
+package com.google.ar.core.examples.kotlin.ml.utils
+
+import java.nio.ByteBuffer
+
+/** Downsampled grids of a Y plane, for scoring, comparing and fingerprinting frames cheaply. */
+object LumaThumbnail {
+  /**
+   * Fills [output] with a [columns] x [rows] grid over the central [coverage] of a [width] x [height]
+   * luma plane. Each cell is the mean of [samplesPerCell] x [samplesPerCell] evenly spaced pixels,
+   * so the cost depends on the grid and not on the image size.
+   */
+  fun sample(
+    buffer: ByteBuffer,
+    rowStride: Int,
+    pixelStride: Int,
+    width: Int,
+    height: Int,
+    output: ByteArray,
+    columns: Int,
+    rows: Int,
+    samplesPerCell: Int = 1,
+    coverage: Float = 1f
+  ) {
+    val cellWidth = maxOf(1, (width * coverage).toInt() / columns)
+    val cellHeight = maxOf(1, (height * coverage).toInt() / rows)
+    val left = maxOf(0, (width - cellWidth * columns) / 2)
+    val top = maxOf(0, (height - cellHeight * rows) / 2)
+    val area = samplesPerCell * samplesPerCell
+
+    for (row in 0 until rows) {
+      val cellTop = top + row * cellHeight
+      for (col in 0 until columns) {
+        val cellLeft = left + col * cellWidth
+        var sum = 0
+        for (sy in 0 until samplesPerCell) {
+          val y = minOf(cellTop + (2 * sy + 1) * cellHeight / (2 * samplesPerCell), height - 1)
+          for (sx in 0 until samplesPerCell) {
+            val x = minOf(cellLeft + (2 * sx + 1) * cellWidth / (2 * samplesPerCell), width - 1)
+            sum += buffer.get(y * rowStride + x * pixelStride).toInt() and 0xff
+          }
+        }
+        output[row * columns + col] = (sum / area).toByte()
+      }
+    }
+  }
+}
@@ -1,30 +1,27 @@
 package com.google.ar.core.examples.kotlin.ml.utils
 
-import com.google.cloud.vision.v1.NormalizedVertex
-
+/**
+ * Maps points of an image rotated clockwise by `imageRotation` back onto the unrotated image.
+ * `imageWidth` x `imageHeight` is the size of the rotated image.
+ */
 object VertexUtils {
-  fun NormalizedVertex.toAbsoluteCoordinates(imageWidth: Int, imageHeight: Int, ): Pair<Int, Int> {
-    return (x * imageWidth).toInt() to (y * imageHeight).toInt()
-  }
-
-  fun Pair<Int, Int>.rotateCoordinates(imageWidth: Int, imageHeight: Int, imageRotation: Int, ): Pair<Int, Int> {
-    val (x, y) = this
+  fun unrotateX(x: Float, y: Float, imageWidth: Int, imageHeight: Int, imageRotation: Int): Float {
     return when (imageRotation) {
-      0 -> x to y
-      180 -> imageWidth - x to imageHeight - y
-      90 -> y to imageWidth - x
-      270 -> imageHeight - y to x
+      0 -> x
+      180 -> imageWidth - x
+      90 -> y
+      270 -> imageHeight - y
       else -> error("Invalid imageRotation $imageRotation")
     }
   }
 
-  fun List<NormalizedVertex>.calculateAverage(): NormalizedVertex {
-    var averageX = 0f
-    var averageY = 0f
-    for (vertex in this) {
-      averageX += vertex.x / size
-      averageY += vertex.y / size
+  fun unrotateY(x: Float, y: Float, imageWidth: Int, imageHeight: Int, imageRotation: Int): Float {
+    return when (imageRotation) {
+      0 -> y
+      180 -> imageHeight - y
+      90 -> imageWidth - x
+      270 -> x
+      else -> error("Invalid imageRotation $imageRotation")
     }
-    return NormalizedVertex.newBuilder().setX(averageX).setY(averageY).build()
   }
 }
@@ -0,0 +1,234 @@
+package com.google.ar.core.examples.kotlin.ml.utils
+
+import android.graphics.ImageFormat
+import android.graphics.Rect
+import android.graphics.YuvImage
+import com.google.ar.core.examples.java.common.helpers.BufferPool
+import com.google.ar.core.examples.kotlin.common.helpers.ImageUtils
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import com.google.protobuf.ByteString
+import com.google.protobuf.UnsafeByteOperations
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.nio.ByteBuffer
+
+class YuvJpegEncoder(quality: Int = DEFAULT_QUALITY, val pool: BufferPool = BufferPool.getShared()) {
+  companion object {
+    private const val TAG = "YuvJpegEncoder"
+    const val DEFAULT_QUALITY = 100
+    const val DEFAULT_MIN_QUALITY = 50
+    private const val QUALITY_STEP = 10
+    private const val INITIAL_OUTPUT_CAPACITY = 256 * 1024
+
+    /**
+     * Writes a [width] x [height] block-averaged view of [plane], starting at [planeOffset], into the
+     * NV21 buffer in rotated order. Each output sample averages a [scale] x [scale] block of the source plane.
+     */
+    internal fun copyPlane(
+      plane: ByteBuffer,
+      planeOffset: Int,
+      rowStride: Int,
+      pixelStride: Int,
+      width: Int,
+      height: Int,
+      rotation: Int,
+      scale: Int,
+      nv21: ByteArray,
+      outputOffset: Int,
+      outputPixelStride: Int
+    ) {
+      val outputWidth = ImageUtils.rotatedWidth(width, height, rotation)
+      val outputHeight = ImageUtils.rotatedHeight(width, height, rotation)
+      val blockRowStride = rowStride * scale
+      val blockPixelStride = pixelStride * scale
+      val origin = planeOffset + ImageUtils.rotatedOrigin(width, height, blockPixelStride, blockRowStride, rotation)
+      val columnStep = ImageUtils.rotatedColumnStep(blockPixelStride, blockRowStride, rotation)
+      val rowStep = ImageUtils.rotatedRowStep(blockPixelStride, blockRowStride, rotation)
+
+      val area = scale * scale
+      var outputIndex = outputOffset
+      var rowStart = origin
+      for (row in 0 until outputHeight) {
+        var index = rowStart
+        for (col in 0 until outputWidth) {
+          if (scale == 1) {
+            nv21[outputIndex] = plane.get(index)
+          } else {
+            var sum = 0
+            var blockRow = index
+            for (y in 0 until scale) {
+              var sample = blockRow
+              for (x in 0 until scale) {
+                sum += plane.get(sample).toInt() and 0xff
+                sample += pixelStride
+              }
+              blockRow += rowStride
+            }
+            nv21[outputIndex] = ((sum + area / 2) / area).toByte()
+          }
+          outputIndex += outputPixelStride
+          index += columnStep
+        }
+        rowStart += rowStep
+      }
+    }
+  }
+
+  var quality: Int = quality
+    set(value) {
+      require(value in 1..100) { "JPEG quality must be in 1..100, was $value" }
+      field = value
+      adaptiveQuality = value
+    }
+
+  /** Lowest quality the encoder may fall back to while trying to fit [maxPayloadBytes]. */
+  var minQuality: Int = DEFAULT_MIN_QUALITY
+    set(value) {
+      require(value in 1..100) { "JPEG quality must be in 1..100, was $value" }
+      field = value
+    }
+
+  /** Frames are box-averaged down until their long edge fits; 0 keeps the full resolution. */
+  var targetLongEdge: Int = 0
+    set(value) {
+      require(value >= 0) { "Target long edge must not be negative, was $value" }
+      field = value
+    }
+
+  /** Upper bound on the encoded size in bytes; 0 disables the budget. */
+  var maxPayloadBytes: Int = 0
+    set(value) {
+      require(value >= 0) { "Payload budget must not be negative, was $value" }
+      field = value
+    }
+
+  @Volatile private var adaptiveQuality = quality
+  @Volatile private var lastEncodedSize = INITIAL_OUTPUT_CAPACITY
+
+  init {
+    this.quality = quality
+  }
+
+  /**
+   * Encodes [image], or the [crop] of it in image pixels, rotated clockwise by [rotation] degrees.
+   * The returned frame leases its output buffer from [pool] and must be closed once the request
+   * holding its content has completed.
+   */
+  fun encode(image: YuvFrame, rotation: Int, crop: Rect? = null): Frame {
+    // Chroma is subsampled by two, so the crop origin has to land on an even pixel
+    val source = Rect(0, 0, image.width, image.height)
+    if (crop != null) {
+      require(source.contains(crop) && !crop.isEmpty) { "Crop $crop is outside of the ${image.width}x${image.height} image" }
+      source.set(crop.left and 1.inv(), crop.top and 1.inv(), crop.right, crop.bottom)
+    }
+
+    val longEdge = maxOf(source.width(), source.height())
+    val scaleFactor = if (targetLongEdge == 0 || longEdge <= targetLongEdge) 1 else (longEdge + targetLongEdge - 1) / targetLongEdge
+
+    // Both luma and chroma dimensions of the packed NV21 frame must be even
+    val width = source.width() / (2 * scaleFactor) * 2
+    val height = source.height() / (2 * scaleFactor) * 2
+    val outputWidth = ImageUtils.rotatedWidth(width, height, rotation)
+    val outputHeight = ImageUtils.rotatedHeight(width, height, rotation)
+    val frameSize = width * height
+    val output = JpegOutputStream(pool, lastEncodedSize)
+    val nv21 = pool.acquireByteArray(frameSize + frameSize / 2)
+    var quality = minOf(adaptiveQuality, this.quality)
+
+    try {
+      val planes = image.planes
+      val lumaOffset = source.top * planes[0].rowStride + source.left * planes[0].pixelStride
+      val vOffset = source.top / 2 * planes[2].rowStride + source.left / 2 * planes[2].pixelStride
+      val uOffset = source.top / 2 * planes[1].rowStride + source.left / 2 * planes[1].pixelStride
+      copyPlane(planes[0].buffer, lumaOffset, planes[0].rowStride, planes[0].pixelStride, width, height, rotation, scaleFactor, nv21, 0, 1)
+      copyPlane(planes[2].buffer, vOffset, planes[2].rowStride, planes[2].pixelStride, width / 2, height / 2, rotation, scaleFactor, nv21, frameSize, 2)
+      copyPlane(planes[1].buffer, uOffset, planes[1].rowStride, planes[1].pixelStride, width / 2, height / 2, rotation, scaleFactor, nv21, frameSize + 1, 2)
+
+      val yuvImage = YuvImage(nv21, ImageFormat.NV21, outputWidth, outputHeight, null)
+      val outputRect = Rect(0, 0, outputWidth, outputHeight)
+
+      output.compress(yuvImage, outputRect, quality)
+      while (maxPayloadBytes > 0 && output.size() > maxPayloadBytes && quality > minQuality) {
+        quality = maxOf(quality - QUALITY_STEP, minQuality)
+        output.compress(yuvImage, outputRect, quality)
+      }
+    } catch (t: Throwable) {
+      output.close()
+      throw t
+    } finally {
+      pool.releaseByteArray(nv21)
+    }
+
+    // Start the next frame from the quality that fit, probing upwards again when there is headroom
+    adaptiveQuality = if (maxPayloadBytes > 0 && output.size() < maxPayloadBytes * 3 / 4) {
+      minOf(quality + QUALITY_STEP, this.quality)
+    } else {
+      quality
+    }
+    lastEncodedSize = output.size()
+
+    return Frame(output, outputWidth, outputHeight, scaleFactor, quality, source.left, source.top)
+  }
+
+  /**
+   * An encoded JPEG whose pixel coordinates map back to rotated full-resolution pixels by
+   * multiplying with [scaleFactor]; the encoded area starts at [cropLeft], [cropTop] of the
+   * unrotated image. [content] wraps a pooled buffer and is invalid after [close].
+   */
+  class Frame internal constructor(
+    private val output: JpegOutputStream,
+    val width: Int,
+    val height: Int,
+    val scaleFactor: Int,
+    val quality: Int,
+    val cropLeft: Int = 0,
+    val cropTop: Int = 0
+  ) : Closeable {
+    val content: ByteString = output.toByteString()
+    val size: Int
+      get() = content.size()
+
+    override fun close() = output.close()
+  }
+}
+
+internal class JpegOutputStream(private val pool: BufferPool, capacity: Int) : ByteArrayOutputStream(0) {
+  init {
+    buf = pool.acquireByteArray(capacity)
+  }
+
+  fun compress(yuvImage: YuvImage, rect: Rect, quality: Int) {
+    reset()
+    yuvImage.compressToJpeg(rect, quality, this)
+  }
+
+  fun toByteString(): ByteString = UnsafeByteOperations.unsafeWrap(buf, 0, count)
+
+  override fun write(b: Int) {
+    ensureCapacity(count + 1)
+    buf[count++] = b.toByte()
+  }
+
+  override fun write(b: ByteArray, off: Int, len: Int) {
+    if (off < 0 || len < 0 || len > b.size - off) throw IndexOutOfBoundsException()
+    ensureCapacity(count + len)
+    System.arraycopy(b, off, buf, count, len)
+    count += len
+  }
+
+  // Grows through the pool, so the larger array is still a pool size class and stays on the lease count
+  private fun ensureCapacity(capacity: Int) {
+    if (capacity <= buf.size) return
+    val grown = pool.acquireByteArray(maxOf(capacity, buf.size * 2))
+    System.arraycopy(buf, 0, grown, 0, count)
+    if (buf.isNotEmpty()) pool.releaseByteArray(buf)
+    buf = grown
+  }
+
+  override fun close() {
+    if (buf.isNotEmpty()) {
+      pool.releaseByteArray(buf)
+      buf = ByteArray(0)
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.google.ar.core.examples.kotlin.common.helpers
+
+import com.google.ar.core.examples.kotlin.common.helpers.RotationReference.ROTATIONS
+import com.google.ar.core.examples.kotlin.common.helpers.RotationReference.sourceX
+import com.google.ar.core.examples.kotlin.common.helpers.RotationReference.sourceY
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ImageUtilsTest {
+  @Test
+  fun rotatedSize_swapsAxesForQuarterTurns() {
+    assertFalse(ImageUtils.swapsAxes(0))
+    assertTrue(ImageUtils.swapsAxes(90))
+    assertFalse(ImageUtils.swapsAxes(180))
+    assertTrue(ImageUtils.swapsAxes(270))
+
+    assertEquals(640, ImageUtils.rotatedWidth(640, 480, 0))
+    assertEquals(480, ImageUtils.rotatedHeight(640, 480, 0))
+    assertEquals(480, ImageUtils.rotatedWidth(640, 480, 90))
+    assertEquals(640, ImageUtils.rotatedHeight(640, 480, 90))
+    assertEquals(640, ImageUtils.rotatedWidth(640, 480, 180))
+    assertEquals(480, ImageUtils.rotatedWidth(640, 480, 270))
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun swapsAxes_rejectsInvalidRotation() {
+    ImageUtils.swapsAxes(45)
+  }
+
+  @Test
+  fun walk_visitsSourceInRotatedOrder_packedStrides() {
+    for (rotation in ROTATIONS) {
+      assertWalk(width = 5, height = 3, columnStride = 1, rowStride = 5, rotation = rotation)
+    }
+  }
+
+  @Test
+  fun walk_visitsSourceInRotatedOrder_paddedStrides() {
+    // Interleaved chroma: every other byte, rows padded past the visible width
+    for (rotation in ROTATIONS) {
+      assertWalk(width = 4, height = 6, columnStride = 2, rowStride = 11, rotation = rotation)
+    }
+  }
+
+  private fun assertWalk(width: Int, height: Int, columnStride: Int, rowStride: Int, rotation: Int) {
+    val outputWidth = ImageUtils.rotatedWidth(width, height, rotation)
+    val outputHeight = ImageUtils.rotatedHeight(width, height, rotation)
+    val columnStep = ImageUtils.rotatedColumnStep(columnStride, rowStride, rotation)
+    val rowStep = ImageUtils.rotatedRowStep(columnStride, rowStride, rotation)
+
+    var rowStart = ImageUtils.rotatedOrigin(width, height, columnStride, rowStride, rotation)
+    for (row in 0 until outputHeight) {
+      var index = rowStart
+      for (col in 0 until outputWidth) {
+        val expected = sourceY(row, col, width, height, rotation) * rowStride +
+          sourceX(row, col, width, height, rotation) * columnStride
+        assertEquals("rotation $rotation at $row,$col", expected, index)
+        index += columnStep
+      }
+      rowStart += rowStep
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.google.ar.core.examples.kotlin.common.helpers
+
+/**
+ * Straightforward definition of a clockwise rotation, for checking the stride walks against: the
+ * pixel shown at [row], [col] of the rotated view of a [width] x [height] grid is the source pixel
+ * at [sourceX], [sourceY].
+ */
+object RotationReference {
+  val ROTATIONS = intArrayOf(0, 90, 180, 270)
+
+  fun sourceX(row: Int, col: Int, width: Int, height: Int, rotation: Int): Int = when (rotation) {
+    0 -> col
+    90 -> row
+    180 -> width - 1 - col
+    270 -> width - 1 - row
+    else -> error("Invalid rotation $rotation")
+  }
+
+  fun sourceY(row: Int, col: Int, width: Int, height: Int, rotation: Int): Int = when (rotation) {
+    0 -> row
+    90 -> height - 1 - col
+    180 -> height - 1 - row
+    270 -> col
+    else -> error("Invalid rotation $rotation")
+  }
+}
@@ -0,0 +1,92 @@
+package com.google.ar.core.examples.kotlin.helloar
+
+import android.graphics.RectF
+import android.opengl.Matrix
+import com.google.ar.core.Pose
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.nio.FloatBuffer
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34])
+class FlickerLayoutTest {
+  companion object {
+    private val WHITE = floatArrayOf(1f, 1f, 1f, 1f)
+    private val GREEN = floatArrayOf(0f, 1f, 0f, 1f)
+
+    // Flickers sit 0.27 m above their anchor, so these anchors put them level with the camera
+    private fun anchorAt(x: Float, z: Float) = Pose(floatArrayOf(x, -0.27f, z), floatArrayOf(0f, 0f, 0f, 1f))
+  }
+
+  private val layout = FlickerLayout(4, RectF(0.35f, 0.35f, 0.65f, 0.65f))
+  private val viewMatrix = FloatArray(16)
+  private val projectionMatrix = FloatArray(16)
+  private val cameraPosition = FloatArray(3)
+  private val models = FloatBuffer.allocate(16 * 4)
+  private val colors = FloatBuffer.allocate(4 * 4)
+
+  @Before
+  fun setUp() {
+    // Camera at the origin looking down -Z
+    Matrix.setLookAtM(viewMatrix, 0, 0f, 0f, 0f, 0f, 0f, -1f, 0f, 1f, 0f)
+    Matrix.perspectiveM(projectionMatrix, 0, 60f, 0.75f, 0.1f, 100f)
+    layout.begin(viewMatrix, projectionMatrix, cameraPosition)
+  }
+
+  private fun color(index: Int) = FloatArray(4) { colors[4 * index + it] }
+
+  @Test
+  fun write_colorsClosestFlickerInsideRegion() {
+    layout.add(anchorAt(0.05f, -1.5f), 0.0, 8.0)
+    layout.add(anchorAt(0f, -1f), 0.0, 8.0)
+    // Closer still, but far off to the side of the restrict region
+    layout.add(anchorAt(0.3f, -0.6f), 0.0, 8.0)
+
+    assertEquals(3, layout.write(models, colors))
+    assertArrayEquals(WHITE, color(0), 0f)
+    assertArrayEquals(GREEN, color(1), 0f)
+    assertArrayEquals(WHITE, color(2), 0f)
+  }
+
+  @Test
+  fun write_ignoresFlickersBehindTheCamera() {
+    layout.add(anchorAt(0f, -2f), 0.0, 8.0)
+    layout.add(anchorAt(0f, 1f), 0.0, 8.0)
+
+    assertEquals(2, layout.write(models, colors))
+    assertArrayEquals(GREEN, color(0), 0f)
+    assertArrayEquals(WHITE, color(1), 0f)
+  }
+
+  @Test
+  fun write_skipsFlickersInTheDarkHalfOfTheirPeriod() {
+    layout.add(anchorAt(0f, -1f), 0.0, 10.0)
+    layout.add(anchorAt(0.05f, -1f), 0.07, 10.0)
+
+    assertEquals(1, layout.write(models, colors))
+    assertArrayEquals(GREEN, color(0), 0f)
+  }
+
+  @Test
+  fun write_placesScaledSphereAboveAnchor() {
+    layout.add(anchorAt(0.1f, -1f), 0.0, 8.0)
+
+    layout.write(models, colors)
+    assertEquals(0.06f, models[0], 1e-6f)
+    assertEquals(0.1f, models[12], 1e-6f)
+    assertEquals(0f, models[13], 1e-6f)
+    assertEquals(-1f, models[14], 1e-6f)
+  }
+
+  @Test
+  fun add_stopsAtMaxFlickers() {
+    for (i in 0 until 6) layout.add(anchorAt(0.01f * i, -1f), 0.0, 8.0)
+
+    assertEquals(4, layout.write(models, colors))
+  }
+}
@@ -0,0 +1,198 @@
+package com.google.ar.core.examples.kotlin.helloar
+
+import android.graphics.RectF
+import android.opengl.GLSurfaceView
+import android.opengl.Matrix
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.java.common.samplerender.SampleRender
+import com.google.ar.core.examples.kotlin.ml.DetectionMetrics
+import com.google.ar.core.examples.kotlin.ml.DetectionResults
+import com.google.ar.core.examples.kotlin.ml.FrameHistory
+import com.google.ar.core.examples.kotlin.ml.render.LabelRender
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+
+/**
+ * Counts the bytes the frame loop allocates per simulated frame, and fails once steady-state frames
+ * allocate anything. The simulated frame runs the units [HelloArRenderer.onDrawFrame] delegates to,
+ * with real framework matrices and a camera looking at the anchors, in place of the ARCore and GL
+ * calls that need a device: placing a detection result, queuing labels, applying the light
+ * estimate, and laying out pawns and flickers for a busy scene.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34])
+class FrameAllocationTest {
+  companion object {
+    private const val ANCHORS = 64
+    private const val DETECTIONS = 16
+    private const val WARMUP_FRAMES = 5_000
+    private const val FRAMES = 1_000
+    private const val FRAME_SECONDS = 1.0 / 60
+    private const val LABEL_TIMEOUT_MILLIS = 10_000L
+    private val LABELS = arrayOf("Chair", "Table", "Lamp", "Plant")
+
+    private fun createFloatBuffer(capacity: Int): FloatBuffer =
+      ByteBuffer.allocateDirect(capacity * java.lang.Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer()
+  }
+
+  private val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+  private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+  // Eight columns across the view and eight rows going away from the camera, so the restrict region holds several
+  private val poses = Array(ANCHORS) { i ->
+    Pose(floatArrayOf(0.04f * (i % 8 - 4), -0.27f, -1f - 0.1f * (i / 8)), floatArrayOf(0f, 0f, 0f, 1f))
+  }
+  private val frequencies = DoubleArray(ANCHORS) { i -> 7.0 + i % 5 }
+  private val viewMatrix = FloatArray(16)
+  private val projectionMatrix = FloatArray(16)
+  private val viewProjectionMatrix = FloatArray(16)
+  private val cameraPosition = FloatArray(3)
+  private val lightDirection = floatArrayOf(0.3f, -1f, 0.2f)
+  private val sphericalHarmonics = FloatArray(9 * 3) { i -> 0.01f * i }
+  private val atlasRect = FloatArray(4)
+
+  private val metrics = DetectionMetrics()
+  private val anchorTracker = DetectedAnchorTracker()
+  private val frameHistory = FrameHistory(scope)
+  private val labelRenderer = LabelRender(scope)
+  private val environmentLighting = EnvironmentLighting()
+  private val pawnLayout = PawnLayout(ANCHORS + anchorTracker.maxTracked)
+  private val pawnModels = createFloatBuffer(16 * pawnLayout.maxPawns)
+  private val pawnAlbedoSelectors = createFloatBuffer(pawnLayout.maxPawns)
+  private val flickerLayout = FlickerLayout(ANCHORS, RectF(0.35f, 0.35f, 0.65f, 0.65f))
+  private val flickerModels = createFloatBuffer(16 * ANCHORS)
+  private val flickerColors = createFloatBuffer(4 * ANCHORS)
+
+  // One scan's results, queued again whenever the previous copy has been placed
+  private val placementQueue = PlacementQueue(budgetNanos = 2_000_000L)
+  private val placement = PendingPlacement(
+    DetectionResults(DETECTIONS).apply {
+      for (i in 0 until DETECTIONS) add(0f, 0f, 10f, 10f, 5f, 5f, 0.1f * (i % 10), DetectionResults.internLabel(LABELS[i % LABELS.size]))
+    },
+    viewCoordinates = FloatArray(2 * DETECTIONS),
+    cameraPose = null,
+    reportToUser = false
+  )
+  private var placementsFinished = 0
+  private val placer = object : PlacementQueue.Placer<Unit> {
+    override fun place(frame: Unit, placement: PendingPlacement, index: Int) = placement.objects.scores[index] >= 0.5f
+
+    override fun finished(placement: PendingPlacement) {
+      placementsFinished++
+    }
+  }
+
+  @Before
+  fun setUp() {
+    Matrix.setLookAtM(viewMatrix, 0, 0f, 0f, 0f, 0f, 0f, -1f, 0f, 1f, 0f)
+    Matrix.perspectiveM(projectionMatrix, 0, 60f, 0.75f, 0.1f, 100f)
+
+    // Rasterize every label up front, so the measured frames take the path that queues them
+    val context = RuntimeEnvironment.getApplication()
+    val render = SampleRender(GLSurfaceView(context), object : SampleRender.Renderer {
+      override fun onSurfaceCreated(render: SampleRender) {}
+      override fun onSurfaceChanged(render: SampleRender, width: Int, height: Int) {}
+      override fun onDrawFrame(render: SampleRender) {}
+    }, context.assets)
+    val atlas = labelRenderer.atlas
+    atlas.onSurfaceCreated(render)
+    val deadline = System.currentTimeMillis() + LABEL_TIMEOUT_MILLIS
+    while (!LABELS.all { atlas.find(it, atlasRect) }) {
+      check(System.currentTimeMillis() < deadline) { "Labels were not rasterized in time" }
+      atlas.update()
+      Thread.sleep(1)
+    }
+  }
+
+  @After
+  fun tearDown() {
+    scope.cancel()
+  }
+
+  private fun simulateFrame(frame: Int) {
+    val frameStart = System.nanoTime()
+    frameHistory.isReadyForFrame(frameStart)
+
+    if (placementQueue.isEmpty()) {
+      placement.next = 0
+      placement.placed = 0
+      placementQueue.add(placement)
+    }
+    placementQueue.placeWithinBudget(Unit, placer)
+    anchorTracker.retireStale(retireUnseen = true, nowNanos = frameStart)
+
+    for (i in LABELS.indices) labelRenderer.add(poses[i], LABELS[i])
+    labelRenderer.atlas.update()
+    labelRenderer.clear()
+
+    // ARCore produces a new estimate with every camera frame, slower than the display
+    val estimateTimestamp = frame / 2L
+    if (environmentLighting.isNewEstimate(estimateTimestamp)) {
+      environmentLighting.setEstimate(estimateTimestamp, lightDirection, sphericalHarmonics)
+    }
+    environmentLighting.updateView(viewMatrix)
+    Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0)
+
+    pawnLayout.begin()
+    for (i in 0 until ANCHORS) {
+      pawnLayout.add(poses[i], if (i % 4 == 0) PawnLayout.ALBEDO_INSTANT_PLACEMENT else PawnLayout.ALBEDO_DEFAULT)
+    }
+    pawnModels.clear()
+    pawnAlbedoSelectors.clear()
+    pawnLayout.write(pawnModels, pawnAlbedoSelectors)
+
+    flickerLayout.begin(viewMatrix, projectionMatrix, cameraPosition)
+    for (i in 0 until ANCHORS) {
+      flickerLayout.add(poses[i], frame * FRAME_SECONDS, frequencies[i])
+    }
+    flickerModels.clear()
+    flickerColors.clear()
+    flickerLayout.write(flickerModels, flickerColors)
+
+    metrics.record(DetectionMetrics.Stage.ANCHOR, System.nanoTime() - frameStart)
+  }
+
+  @Test
+  fun steadyStateFrames_allocateNothing() {
+    // Warm up first so class loading and compilation are not counted against the frames
+    for (frame in 0 until WARMUP_FRAMES) simulateFrame(frame)
+
+    val thread = Thread.currentThread().id
+    val before = threads.getThreadAllocatedBytes(thread)
+    for (frame in 0 until FRAMES) simulateFrame(WARMUP_FRAMES + frame)
+    val allocated = threads.getThreadAllocatedBytes(thread) - before
+
+    assertEquals("Bytes allocated per simulated frame ($allocated over $FRAMES frames)", 0L, allocated / FRAMES)
+  }
+
+  @Test
+  fun simulatedFrames_takeTheFullPaths() {
+    for (frame in 0 until WARMUP_FRAMES) simulateFrame(frame)
+    // Every flicker is lit at the start of its period
+    simulateFrame(0)
+
+    // Placements completed, pawns were written, and a flicker inside the restrict region was picked
+    assertTrue(placementsFinished > 0)
+    assertEquals(ANCHORS, pawnAlbedoSelectors.position())
+    var closest = 0
+    for (i in 0 until flickerColors.position() / 4) {
+      if (flickerColors[4 * i] == 0f && flickerColors[4 * i + 1] == 1f) closest++
+    }
+    assertEquals(1, closest)
+  }
+}
@@ -0,0 +1,104 @@
+package com.google.ar.core.examples.kotlin.helloar
+
+import com.google.ar.core.examples.kotlin.ml.DetectionResults
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PlacementQueueTest {
+  private class RecordingPlacer(val hits: (Int) -> Boolean = { true }) : PlacementQueue.Placer<Unit> {
+    var tried = 0
+    val finished = mutableListOf<PendingPlacement>()
+
+    override fun place(frame: Unit, placement: PendingPlacement, index: Int): Boolean {
+      tried++
+      return hits(index)
+    }
+
+    override fun finished(placement: PendingPlacement) {
+      finished.add(placement)
+    }
+  }
+
+  private fun placement(size: Int, reportToUser: Boolean = true) = PendingPlacement(
+    DetectionResults(size).apply { repeat(size) { add(0f, 0f, 1f, 1f, 0.5f, 0.5f, 1f, 0) } },
+    FloatArray(2 * size),
+    cameraPose = null,
+    reportToUser = reportToUser
+  )
+
+  @Test
+  fun placeWithinBudget_triesEveryResultAndReportsPlaced() {
+    val queue = PlacementQueue(budgetNanos = Long.MAX_VALUE / 2)
+    val first = placement(3)
+    val second = placement(2)
+    queue.add(first)
+    queue.add(second)
+    val placer = RecordingPlacer { it != 1 }
+
+    queue.placeWithinBudget(Unit, placer)
+
+    assertEquals(5, placer.tried)
+    assertEquals(listOf(first, second), placer.finished)
+    assertEquals(2, first.placed)
+    assertEquals(1, second.placed)
+    assertTrue(queue.isEmpty())
+  }
+
+  @Test
+  fun placeWithinBudget_placesOnePerFrameOnceBudgetIsSpent() {
+    val queue = PlacementQueue(budgetNanos = 0)
+    val pending = placement(3)
+    queue.add(pending)
+    val placer = RecordingPlacer()
+
+    queue.placeWithinBudget(Unit, placer)
+    assertEquals(1, placer.tried)
+    assertTrue(placer.finished.isEmpty())
+
+    queue.placeWithinBudget(Unit, placer)
+    queue.placeWithinBudget(Unit, placer)
+    assertEquals(3, placer.tried)
+    assertEquals(listOf(pending), placer.finished)
+  }
+
+  @Test
+  fun placeWithinBudget_finishesEmptyResultsWithoutPlacing() {
+    val queue = PlacementQueue(budgetNanos = 0)
+    queue.add(placement(0))
+    val placer = RecordingPlacer()
+
+    queue.placeWithinBudget(Unit, placer)
+
+    assertEquals(0, placer.tried)
+    assertEquals(1, placer.finished.size)
+  }
+
+  @Test
+  fun clear_dropsQueuedPlacements() {
+    val queue = PlacementQueue(budgetNanos = 0)
+    queue.add(placement(2))
+    val placer = RecordingPlacer()
+
+    assertTrue(queue.clear())
+    queue.placeWithinBudget(Unit, placer)
+
+    assertEquals(0, placer.tried)
+    assertTrue(placer.finished.isEmpty())
+  }
+
+  @Test
+  fun clear_reportsWhetherAScanWasWaiting() {
+    val queue = PlacementQueue(budgetNanos = 0)
+    queue.add(placement(2, reportToUser = false))
+    assertFalse(queue.clear())
+
+    // Partly placed, as after a frame whose budget ran out
+    queue.add(placement(2, reportToUser = false))
+    queue.add(placement(2, reportToUser = true))
+    queue.placeWithinBudget(Unit, RecordingPlacer())
+    assertTrue(queue.clear())
+    assertFalse(queue.clear())
+  }
+}
@@ -0,0 +1,200 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import com.google.ar.core.examples.kotlin.ml.backend.FakeVisionServer
+import com.google.ar.core.examples.kotlin.ml.backend.VisionBackend
+import com.google.cloud.vision.v1.AnnotateImageRequest
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest
+import com.google.cloud.vision.v1.Feature
+import com.google.cloud.vision.v1.Image
+import com.google.protobuf.ByteString
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+class AnnotateBatcherTest {
+  companion object {
+    private const val CONTENT_BYTES = 1_000
+
+    /** A request whose image content is [label] padded to a fixed size, so every request has the same size. */
+    fun request(label: String): AnnotateImageRequest = AnnotateImageRequest.newBuilder()
+      .setImage(Image.newBuilder().setContent(ByteString.copyFromUtf8(label.padEnd(CONTENT_BYTES))))
+      .addFeatures(Feature.newBuilder().setType(Feature.Type.OBJECT_LOCALIZATION))
+      .build()
+  }
+
+  // Answers each image with one annotation named after its content, so responses can be matched to callers
+  private val server = FakeVisionServer { _, request ->
+    listOf(FakeVisionServer.annotation(request.image.content.toStringUtf8().trim(), 1f, 0f, 0f, 1f, 1f))
+  }
+  private lateinit var backend: VisionBackend
+  private lateinit var scope: CoroutineScope
+  private val batchSizes: MutableList<Int> = Collections.synchronizedList(mutableListOf())
+  private val released = AtomicInteger()
+
+  @Before
+  fun setUp() {
+    backend = server.createBackend()
+    scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+  }
+
+  @After
+  fun tearDown() {
+    scope.cancel()
+    backend.close()
+    server.close()
+  }
+
+  private fun batcher(windowMillis: Long, maxBatchBytes: Int = AnnotateBatcher.DEFAULT_MAX_BATCH_BYTES) =
+    AnnotateBatcher(scope, ::send, windowMillis = windowMillis, maxBatchBytes = maxBatchBytes)
+
+  private fun send(request: BatchAnnotateImagesRequest, timeoutMillis: Long) =
+    backend.batchAnnotateImagesAsync(request, timeoutMillis).also { batchSizes.add(request.requestsCount) }
+
+  private suspend fun annotateAll(batcher: AnnotateBatcher, count: Int): List<String> = coroutineScope {
+    List(count) { i -> async { batcher.annotate(request("image-$i")) { released.incrementAndGet() } } }
+      .awaitAll()
+      .map { it.getLocalizedObjectAnnotations(0).name }
+  }
+
+  /** Requests are released just after their callers are answered, so give the batch a moment to finish. */
+  private suspend fun assertReleased(expected: Int) {
+    withTimeoutOrNull(1_000) { while (released.get() < expected) delay(5) }
+    assertEquals(expected, released.get())
+  }
+
+  @Test
+  fun annotate_coalescesRequestsWithinWindow() = runBlocking {
+    val batcher = batcher(windowMillis = 300)
+
+    val names = annotateAll(batcher, 3)
+
+    assertEquals(listOf("image-0", "image-1", "image-2"), names)
+    assertEquals(listOf(3), batchSizes)
+    assertEquals(1, server.callCount.get())
+    assertReleased(3)
+  }
+
+  @Test
+  fun annotate_sendsSeparateBatchesOnceWindowHasPassed() = runBlocking {
+    val batcher = batcher(windowMillis = 20)
+
+    batcher.annotate(request("first"))
+    delay(200)
+    batcher.annotate(request("second"))
+
+    assertEquals(listOf(1, 1), batchSizes)
+  }
+
+  @Test
+  fun annotate_splitsAtMaxBatchSize() = runBlocking {
+    val batcher = batcher(windowMillis = 300)
+
+    val names = annotateAll(batcher, 20)
+
+    assertEquals(List(20) { "image-$it" }, names)
+    assertEquals(listOf(AnnotateBatcher.DEFAULT_MAX_BATCH_SIZE, 4), batchSizes)
+    assertReleased(20)
+  }
+
+  @Test
+  fun annotate_carriesOverRequestThatWouldExceedByteLimit() = runBlocking {
+    val size = request("image-0").serializedSize
+    val batcher = batcher(windowMillis = 300, maxBatchBytes = size * 5 / 2)
+
+    val names = annotateAll(batcher, 3)
+
+    // The third request does not fit, so it opens the next batch instead of being dropped
+    assertEquals(listOf("image-0", "image-1", "image-2"), names)
+    assertEquals(listOf(2, 1), batchSizes)
+    assertReleased(3)
+  }
+
+  @Test
+  fun annotate_dropsCallersCancelledBeforeDispatch() = runBlocking {
+    val batcher = batcher(windowMillis = 300)
+
+    val abandoned = async { batcher.annotate(request("abandoned")) { released.incrementAndGet() } }
+    val kept = async { batcher.annotate(request("kept")) { released.incrementAndGet() } }
+    delay(50)
+    abandoned.cancel()
+
+    assertEquals("kept", kept.await().getLocalizedObjectAnnotations(0).name)
+    assertEquals(listOf(1), batchSizes)
+    assertReleased(2)
+  }
+
+  @Test
+  fun annotate_sendsNothingWhenEveryCallerIsCancelled() = runBlocking {
+    val batcher = batcher(windowMillis = 100)
+
+    val abandoned = async { batcher.annotate(request("abandoned")) { released.incrementAndGet() } }
+    delay(20)
+    abandoned.cancel()
+    delay(300)
+
+    assertEquals(0, server.callCount.get())
+    assertReleased(1)
+  }
+
+  @Test
+  fun annotate_answersAndReleasesEveryRequestUnderChurn() = runBlocking {
+    // Windows of a millisecond or two keep timing out while requests arrive
+    val batcher = batcher(windowMillis = 1)
+
+    val names = List(8) { worker ->
+      async(Dispatchers.Default) {
+        List(50) { i ->
+          batcher.annotate(request("image-$worker-$i")) { released.incrementAndGet() }.getLocalizedObjectAnnotations(0).name
+        }
+      }
+    }.awaitAll().flatten()
+
+    assertEquals(400, names.size)
+    assertEquals(400, batchSizes.sum())
+    assertReleased(400)
+  }
+
+  @Test
+  fun close_failsQueuedCallersAndRejectsNewOnes() = runBlocking {
+    val batcher = batcher(windowMillis = 1_000)
+
+    val queued = List(3) { i -> async { batcher.annotate(request("image-$i")) { released.incrementAndGet() } } }
+    delay(50)
+    batcher.close()
+
+    for (caller in queued) {
+      try {
+        caller.await()
+        fail("Expected a queued request to fail on close")
+      } catch (e: CancellationException) {
+        // Expected
+      }
+    }
+    assertReleased(3)
+    assertTrue(batchSizes.isEmpty())
+
+    try {
+      batcher.annotate(request("late")) { released.incrementAndGet() }
+      fail("Expected a closed batcher to reject requests")
+    } catch (e: IOException) {
+      assertReleased(4)
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.withContext
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Drives a detector with synthetic camera frames and measures end-to-end latency of
+ * [ObjectDetector.analyze], from filling the frame's planes through encoding and the RPC to
+ * [DetectionResults].
+ * Pair it with a [com.google.ar.core.examples.kotlin.ml.backend.FakeVisionServer] backend to run
+ * without network access. On the JVM Android's JPEG codec is stubbed out, so the numbers cover the
+ * frame copy, batching, transport and parsing but not compression.
+ */
+class DetectionLoadHarness(
+  private val detector: ObjectDetector,
+  val width: Int = DEFAULT_WIDTH,
+  val height: Int = DEFAULT_HEIGHT,
+  val concurrency: Int = 1
+) {
+  companion object {
+    const val DEFAULT_WIDTH = 640
+    const val DEFAULT_HEIGHT = 480
+  }
+
+  class Report(
+    val frames: Int,
+    val failures: Int,
+    val elapsedMillis: Long,
+    val p50Millis: Double,
+    val p90Millis: Double,
+    val p99Millis: Double,
+    val maxMillis: Double
+  ) {
+    val framesPerSecond: Double
+      get() = if (elapsedMillis == 0L) 0.0 else frames * 1000.0 / elapsedMillis
+
+    override fun toString() =
+      "frames=$frames failures=$failures fps=${"%.1f".format(framesPerSecond)} " +
+        "p50=${"%.1f".format(p50Millis)}ms p90=${"%.1f".format(p90Millis)}ms " +
+        "p99=${"%.1f".format(p99Millis)}ms max=${"%.1f".format(maxMillis)}ms"
+  }
+
+  init {
+    require(concurrency > 0) { "Concurrency must be positive, was $concurrency" }
+  }
+
+  suspend fun run(frameCount: Int, imageRotation: Int = 90): Report = withContext(Dispatchers.IO) {
+    val latencies = LongArray(frameCount)
+    val next = AtomicInteger()
+    val failures = AtomicInteger()
+    val start = System.nanoTime()
+
+    coroutineScope {
+      List(concurrency) {
+        async {
+          while (true) {
+            val index = next.getAndIncrement()
+            if (index >= frameCount) break
+            val frameStart = System.nanoTime()
+            // Stands in for DetectionWorker's copy of the camera image into pooled planes
+            val frame = YuvFrame.allocate(width, height, index.toLong())
+            try {
+              fill(frame, index)
+              detector.analyze(frame, imageRotation)
+            } catch (e: Exception) {
+              failures.incrementAndGet()
+            } finally {
+              latencies[index] = System.nanoTime() - frameStart
+              frame.close()
+            }
+          }
+        }
+      }.awaitAll()
+    }
+
+    val elapsedMillis = (System.nanoTime() - start) / 1_000_000L
+    latencies.sort()
+    Report(
+      frameCount,
+      failures.get(),
+      elapsedMillis,
+      percentileMillis(latencies, 0.50),
+      percentileMillis(latencies, 0.90),
+      percentileMillis(latencies, 0.99),
+      percentileMillis(latencies, 1.0)
+    )
+  }
+
+  /** A diagonal gradient that shifts every frame, so no two frames are identical. */
+  private fun fill(frame: YuvFrame, index: Int) {
+    val planes = frame.planes
+    val luma = planes[0]
+    for (y in 0 until frame.height) {
+      for (x in 0 until frame.width) {
+        luma.buffer.put(y * luma.rowStride + x * luma.pixelStride, (x + y + index * 7).toByte())
+      }
+    }
+    for (plane in 1..2) {
+      val chroma = planes[plane]
+      for (y in 0 until frame.height / 2) {
+        for (x in 0 until frame.width / 2) {
+          chroma.buffer.put(y * chroma.rowStride + x * chroma.pixelStride, (128 + (plane * 2 - 3) * (index % 64)).toByte())
+        }
+      }
+    }
+  }
+
+  private fun percentileMillis(sorted: LongArray, percentile: Double): Double {
+    if (sorted.isEmpty()) return 0.0
+    val index = ((sorted.size - 1) * percentile).toInt()
+    return sorted[index] / 1_000_000.0
+  }
+}
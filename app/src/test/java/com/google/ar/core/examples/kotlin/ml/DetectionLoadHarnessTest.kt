@@ -0,0 +1,33 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import com.google.ar.core.examples.kotlin.ml.backend.FakeVisionServer
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Runs the load harness against an in-process fake server and prints the latency percentiles:
+ * `./gradlew :app:testDebugUnitTest --tests '*DetectionLoadHarnessTest*' -i`
+ */
+class DetectionLoadHarnessTest {
+  companion object {
+    private const val FRAME_COUNT = 64
+  }
+
+  @Test
+  fun run_reportsLatencyPercentiles() {
+    FakeVisionServer { _, _ -> listOf(FakeVisionServer.annotation("Cup", 0.9f, 0.2f, 0.2f, 0.6f, 0.7f)) }.use { server ->
+      server.latencyMillis = 20
+      server.latencyJitterMillis = 30
+      CloudVision(server.createBackend()).use { detector ->
+        for (concurrency in intArrayOf(1, 4)) {
+          val report = runBlocking { DetectionLoadHarness(detector, concurrency = concurrency).run(FRAME_COUNT) }
+          println("concurrency=$concurrency $report")
+
+          assertEquals(FRAME_COUNT, report.frames)
+          assertEquals(0, report.failures)
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import android.graphics.Rect
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class DetectionWorkerTest {
+  // Never answers, like a request still waiting on the network when the app is paused
+  private class HangingDetector : ObjectDetector() {
+    val started = CompletableDeferred<Unit>()
+    val calls = AtomicInteger()
+
+    override suspend fun analyze(image: YuvFrame, imageRotation: Int, crop: Rect?): DetectionResults {
+      calls.incrementAndGet()
+      started.complete(Unit)
+      awaitCancellation()
+    }
+
+    override fun close() {}
+  }
+
+  private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+  private val detector = HangingDetector()
+
+  @After
+  fun tearDown() {
+    scope.cancel()
+  }
+
+  private fun frame() = YuvFrame.allocate(8, 8)
+
+  @Test
+  fun stop_midRequest_publishesCancellation() = runBlocking {
+    val worker = DetectionWorker(detector, scope, filter = null)
+    worker.start()
+    worker.offer(frame(), 0)
+    withTimeout(5_000) { detector.started.await() }
+
+    worker.stop()
+
+    val result = worker.pollResult()
+    assertTrue(result!!.exceptionOrNull() is CancellationException)
+    assertNull(worker.pollResult())
+  }
+
+  @Test
+  fun stop_beforeDispatch_publishesCancellation() = runBlocking {
+    val worker = DetectionWorker(detector, scope, maxInFlight = 1, filter = null)
+    worker.start()
+    worker.offer(frame(), 0)
+    withTimeout(5_000) { detector.started.await() }
+    // Waits for the only permit, so it is still pending when the worker stops
+    worker.offer(frame(), 0)
+
+    worker.stop()
+
+    assertTrue(worker.pollResult()!!.exceptionOrNull() is CancellationException)
+    assertEquals(1, detector.calls.get())
+  }
+
+  @Test
+  fun stop_afterResult_keepsResult() = runBlocking {
+    val answered = CompletableDeferred<Unit>()
+    val immediate = object : ObjectDetector() {
+      override suspend fun analyze(image: YuvFrame, imageRotation: Int, crop: Rect?): DetectionResults {
+        answered.complete(Unit)
+        return DetectionResults.EMPTY
+      }
+
+      override fun close() {}
+    }
+    val worker = DetectionWorker(immediate, scope, filter = null)
+    worker.start()
+    worker.offer(frame(), 0)
+    withTimeout(5_000) { answered.await() }
+    var result = worker.pollResult()
+    while (result == null) result = worker.pollResult()
+
+    worker.stop()
+
+    assertSame(DetectionResults.EMPTY, result.getOrNull()!!.results)
+    assertNull(worker.pollResult())
+  }
+
+  @Test
+  fun restart_afterStop_analyzesAgain() = runBlocking {
+    val worker = DetectionWorker(detector, scope, maxInFlight = 1, filter = null)
+    worker.start()
+    worker.offer(frame(), 0)
+    withTimeout(5_000) { detector.started.await() }
+    worker.stop()
+    worker.pollResult()
+
+    worker.start()
+    worker.offer(frame(), 0)
+    withTimeout(5_000) { while (detector.calls.get() < 2) delay(1) }
+    worker.stop()
+
+    assertTrue(worker.pollResult()!!.exceptionOrNull() is CancellationException)
+  }
+}
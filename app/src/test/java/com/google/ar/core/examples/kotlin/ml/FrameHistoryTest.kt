@@ -0,0 +1,98 @@
+package com.google.ar.core.examples.kotlin.ml
+
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.java.common.helpers.BufferPool
+import com.google.ar.core.examples.kotlin.common.helpers.YuvFrame
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class FrameHistoryTest {
+  companion object {
+    private const val MS = 1_000_000L
+    private const val WIDTH = 320
+    private const val HEIGHT = 240
+    private const val PLANES = 3
+  }
+
+  private val pool = BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES)
+  private val history = FrameHistory(CoroutineScope(Dispatchers.Default), pool = pool)
+
+  /** A frame whose Y plane is a checkerboard of [contrast]; a higher contrast scores sharper. */
+  private fun frame(contrast: Int): YuvFrame {
+    val frame = YuvFrame.allocate(WIDTH, HEIGHT, pool = pool)
+    val luma = frame.planes[0].buffer
+    for (y in 0 until HEIGHT) {
+      for (x in 0 until WIDTH) {
+        luma.put(y * WIDTH + x, (128 + if ((x + y) % 2 == 0) contrast else -contrast).toByte())
+      }
+    }
+    return frame
+  }
+
+  private fun record(contrast: Int, capturedNanos: Long): YuvFrame =
+    frame(contrast).also { history.record(it, Pose.IDENTITY, capturedNanos) }
+
+  private val keptFrames: Long
+    get() = pool.leasedCount / PLANES
+
+  @Test
+  fun takeSharpest_returnsSharpestInWindow() {
+    record(contrast = 10, capturedNanos = 0)
+    val sharp = record(contrast = 100, capturedNanos = 50 * MS)
+    record(contrast = 40, capturedNanos = 100 * MS)
+
+    assertSame(sharp, history.takeSharpest(nowNanos = 150 * MS)!!.frame)
+  }
+
+  @Test
+  fun takeSharpest_afterSharpestExpires_returnsNextSharpestNotNewest() {
+    record(contrast = 100, capturedNanos = 0)
+    val medium = record(contrast = 60, capturedNanos = 100 * MS)
+    record(contrast = 10, capturedNanos = 200 * MS)
+
+    // The sharp frame has left the 300 ms window; the blurry newest frame must not win
+    assertSame(medium, history.takeSharpest(nowNanos = 350 * MS)!!.frame)
+  }
+
+  @Test
+  fun record_dropsFramesThatANewerFrameOutscores() {
+    record(contrast = 10, capturedNanos = 0)
+    record(contrast = 20, capturedNanos = 50 * MS)
+    record(contrast = 30, capturedNanos = 100 * MS)
+
+    assertEquals(1L, keptFrames)
+  }
+
+  @Test
+  fun record_keepsAtMostMaxFrames() {
+    for (i in 0 until FrameHistory.DEFAULT_MAX_FRAMES + 4) {
+      record(contrast = 100 - i, capturedNanos = i * MS)
+    }
+
+    assertEquals(FrameHistory.DEFAULT_MAX_FRAMES.toLong(), keptFrames)
+  }
+
+  @Test
+  fun takeSharpest_leavesNewerFramesForTheNextScan() {
+    val first = record(contrast = 100, capturedNanos = 0)
+    val second = record(contrast = 50, capturedNanos = 50 * MS)
+
+    assertSame(first, history.takeSharpest(nowNanos = 100 * MS)!!.frame)
+    assertSame(second, history.takeSharpest(nowNanos = 100 * MS)!!.frame)
+    assertNull(history.takeSharpest(nowNanos = 100 * MS))
+  }
+
+  @Test
+  fun record_afterClear_dropsFramesCapturedBeforeIt() {
+    record(contrast = 100, capturedNanos = 0)
+    history.clear(nowNanos = 100 * MS)
+    record(contrast = 100, capturedNanos = 50 * MS)
+
+    assertEquals(0L, keptFrames)
+    assertNull(history.takeSharpest(nowNanos = 150 * MS))
+  }
+}
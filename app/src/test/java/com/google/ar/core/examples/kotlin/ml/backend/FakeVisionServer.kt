@@ -0,0 +1,111 @@
+package com.google.ar.core.examples.kotlin.ml.backend
+
+import com.google.cloud.vision.v1.AnnotateImageRequest
+import com.google.cloud.vision.v1.AnnotateImageResponse
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse
+import com.google.cloud.vision.v1.BoundingPoly
+import com.google.cloud.vision.v1.ImageAnnotatorGrpc
+import com.google.cloud.vision.v1.LocalizedObjectAnnotation
+import com.google.cloud.vision.v1.NormalizedVertex
+import io.grpc.Status
+import io.grpc.inprocess.InProcessChannelBuilder
+import io.grpc.inprocess.InProcessServerBuilder
+import io.grpc.stub.StreamObserver
+import java.io.Closeable
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * An in-process gRPC `ImageAnnotator` that answers every image with scripted object annotations.
+ * Latency, failures and a throughput ceiling can be injected to exercise the detection pipeline
+ * without network access. Settings may be changed while the server is running.
+ */
+class FakeVisionServer(
+  @Volatile var script: (imageIndex: Int, request: AnnotateImageRequest) -> List<LocalizedObjectAnnotation> = { _, _ -> emptyList() }
+) : Closeable {
+  companion object {
+    fun annotation(name: String, score: Float, left: Float, top: Float, right: Float, bottom: Float): LocalizedObjectAnnotation {
+      val polygon = BoundingPoly.newBuilder()
+        .addNormalizedVertices(NormalizedVertex.newBuilder().setX(left).setY(top))
+        .addNormalizedVertices(NormalizedVertex.newBuilder().setX(right).setY(top))
+        .addNormalizedVertices(NormalizedVertex.newBuilder().setX(right).setY(bottom))
+        .addNormalizedVertices(NormalizedVertex.newBuilder().setX(left).setY(bottom))
+      return LocalizedObjectAnnotation.newBuilder()
+        .setName(name)
+        .setScore(score)
+        .setBoundingPoly(polygon)
+        .build()
+    }
+  }
+
+  /** Fixed delay added to every call. */
+  @Volatile var latencyMillis = 0L
+
+  /** Upper bound of a uniformly distributed delay added on top of [latencyMillis]. */
+  @Volatile var latencyJitterMillis = 0L
+
+  /** Fraction of calls in 0..1 that fail with [errorStatus]. */
+  @Volatile var errorRate = 0f
+  @Volatile var errorStatus: Status = Status.UNAVAILABLE
+
+  /** Images per second the server will answer across all calls; 0 is unlimited. */
+  @Volatile var maxImagesPerSecond = 0
+
+  val callCount = AtomicInteger()
+  val imageCount = AtomicInteger()
+
+  private val name = InProcessServerBuilder.generateName()
+  private val server = InProcessServerBuilder.forName(name).addService(Service()).build().start()
+  val channel = InProcessChannelBuilder.forName(name).build()
+  private var nextSlotNanos = 0L
+
+  fun createBackend(): VisionBackend = ImageAnnotatorBackend.forChannel(channel)
+
+  override fun close() {
+    channel.shutdownNow()
+    server.shutdownNow()
+    server.awaitTermination(1, TimeUnit.SECONDS)
+  }
+
+  private fun awaitThroughput(images: Int) {
+    val rate = maxImagesPerSecond
+    if (rate <= 0) return
+    val waitNanos = synchronized(this) {
+      val now = System.nanoTime()
+      val start = maxOf(now, nextSlotNanos)
+      nextSlotNanos = start + images * 1_000_000_000L / rate
+      start - now
+    }
+    if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos)
+  }
+
+  private inner class Service : ImageAnnotatorGrpc.ImageAnnotatorImplBase() {
+    override fun batchAnnotateImages(
+      request: BatchAnnotateImagesRequest,
+      responseObserver: StreamObserver<BatchAnnotateImagesResponse>
+    ) {
+      callCount.incrementAndGet()
+      awaitThroughput(request.requestsCount)
+
+      val random = ThreadLocalRandom.current()
+      val jitter = latencyJitterMillis
+      val delay = latencyMillis + if (jitter > 0) random.nextLong(jitter + 1) else 0L
+      if (delay > 0) Thread.sleep(delay)
+
+      if (random.nextFloat() < errorRate) {
+        responseObserver.onError(errorStatus.withDescription("Injected failure").asRuntimeException())
+        return
+      }
+
+      val response = BatchAnnotateImagesResponse.newBuilder()
+      for (imageRequest in request.requestsList) {
+        val annotations = script(imageCount.getAndIncrement(), imageRequest)
+        response.addResponses(AnnotateImageResponse.newBuilder().addAllLocalizedObjectAnnotations(annotations))
+      }
+      responseObserver.onNext(response.build())
+      responseObserver.onCompleted()
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.google.ar.core.examples.kotlin.ml.utils
+
+import com.google.ar.core.examples.java.common.helpers.BufferPool
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class JpegOutputStreamTest {
+  @Test
+  fun write_growsWithinPoolSizeClasses() {
+    val pool = BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES)
+    val data = ByteArray(100) { it.toByte() }
+
+    JpegOutputStream(pool, 16).use { output ->
+      output.write(data, 0, 40)
+      output.write(data[40].toInt())
+      output.write(data, 41, 59)
+
+      assertArrayEquals(data, output.toByteString().toByteArray())
+      assertEquals(1, pool.leasedCount)
+      assertEquals(128, pool.leasedBytes)
+    }
+
+    assertEquals(0, pool.leasedCount)
+    assertEquals(0, pool.leasedBytes)
+    assertEquals(16 + 64 + 128L, pool.retainedBytes)
+  }
+}
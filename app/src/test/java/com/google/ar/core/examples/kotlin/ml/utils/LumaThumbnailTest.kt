@@ -0,0 +1,47 @@
+package com.google.ar.core.examples.kotlin.ml.utils
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class LumaThumbnailTest {
+  @Test
+  fun sample_averagesEachCell() {
+    // An 8x4 plane of 2x2 blocks, each filled with its own value, with four bytes of row padding
+    val rowStride = 12
+    val plane = ByteBuffer.wrap(ByteArray(rowStride * 4) { i -> if (i % rowStride < 8) (i / rowStride / 2 * 4 + i % rowStride / 2).toByte() else -1 })
+    val output = ByteArray(8)
+
+    LumaThumbnail.sample(plane, rowStride, 1, 8, 4, output, 4, 2, samplesPerCell = 2)
+
+    assertArrayEquals(byteArrayOf(0, 1, 2, 3, 4, 5, 6, 7), output)
+  }
+
+  @Test
+  fun sample_coversOnlyTheCenter() {
+    // Bright frame with a dark centre quarter: sampling the central half sees only the dark part
+    val width = 16
+    val height = 16
+    val plane = ByteBuffer.wrap(ByteArray(width * height) { i ->
+      val x = i % width
+      val y = i / width
+      if (x in 4 until 12 && y in 4 until 12) 10 else 200.toByte()
+    })
+    val output = ByteArray(16)
+
+    LumaThumbnail.sample(plane, width, 1, width, height, output, 4, 4, coverage = 0.5f)
+
+    for (value in output) assertEquals(10, value.toInt() and 0xff)
+  }
+
+  @Test
+  fun sample_readsInterleavedPlanes() {
+    val plane = ByteBuffer.wrap(ByteArray(8) { i -> if (i % 2 == 0) (i * 10).toByte() else -1 })
+    val output = ByteArray(4)
+
+    LumaThumbnail.sample(plane, 8, 2, 4, 1, output, 4, 1)
+
+    assertArrayEquals(byteArrayOf(0, 20, 40, 60), output)
+  }
+}
@@ -0,0 +1,77 @@
+package com.google.ar.core.examples.kotlin.ml.utils
+
+import com.google.ar.core.examples.kotlin.common.helpers.ImageUtils
+import com.google.ar.core.examples.kotlin.common.helpers.RotationReference.ROTATIONS
+import com.google.ar.core.examples.kotlin.common.helpers.RotationReference.sourceX
+import com.google.ar.core.examples.kotlin.common.helpers.RotationReference.sourceY
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class YuvJpegEncoderTest {
+  @Test
+  fun copyPlane_rotatesLuma() {
+    val width = 6
+    val height = 4
+    val rowStride = width + 2
+    val plane = ByteBuffer.wrap(ByteArray(rowStride * height) { it.toByte() })
+
+    for (rotation in ROTATIONS) {
+      val output = ByteArray(width * height)
+      YuvJpegEncoder.copyPlane(plane, 0, rowStride, 1, width, height, rotation, 1, output, 0, 1)
+
+      val outputWidth = ImageUtils.rotatedWidth(width, height, rotation)
+      for (i in output.indices) {
+        val row = i / outputWidth
+        val col = i % outputWidth
+        val expected = sourceY(row, col, width, height, rotation) * rowStride + sourceX(row, col, width, height, rotation)
+        assertEquals("rotation $rotation at $row,$col", expected.toByte(), output[i])
+      }
+    }
+  }
+
+  @Test
+  fun copyPlane_interleavesChromaFromOffset() {
+    // A 3x2 chroma plane with pixel stride 2, copied into every other byte after a 4 byte prefix
+    val width = 3
+    val height = 2
+    val rowStride = 8
+    val planeOffset = 1
+    val plane = ByteBuffer.wrap(ByteArray(planeOffset + rowStride * height) { it.toByte() })
+
+    for (rotation in ROTATIONS) {
+      val output = ByteArray(4 + 2 * width * height)
+      YuvJpegEncoder.copyPlane(plane, planeOffset, rowStride, 2, width, height, rotation, 1, output, 4, 2)
+
+      val outputWidth = ImageUtils.rotatedWidth(width, height, rotation)
+      for (i in 0 until width * height) {
+        val row = i / outputWidth
+        val col = i % outputWidth
+        val expected = planeOffset +
+          sourceY(row, col, width, height, rotation) * rowStride +
+          sourceX(row, col, width, height, rotation) * 2
+        assertEquals("rotation $rotation at $row,$col", expected.toByte(), output[4 + 2 * i])
+        assertEquals(0.toByte(), output[4 + 2 * i + 1])
+      }
+    }
+  }
+
+  @Test
+  fun copyPlane_averagesBlocksBeforeRotating() {
+    // Each 2x2 block of a 4x4 plane holds one value, so the 2x2 result is the rotated block values
+    val blockValues = intArrayOf(10, 20, 30, 40)
+    val plane = ByteBuffer.wrap(ByteArray(16) { i -> blockValues[(i / 4 / 2) * 2 + (i % 4) / 2].toByte() })
+
+    for (rotation in ROTATIONS) {
+      val output = ByteArray(4)
+      YuvJpegEncoder.copyPlane(plane, 0, 4, 1, 2, 2, rotation, 2, output, 0, 1)
+
+      for (i in output.indices) {
+        val row = i / 2
+        val col = i % 2
+        val expected = blockValues[sourceY(row, col, 2, 2, rotation) * 2 + sourceX(row, col, 2, 2, rotation)]
+        assertEquals("rotation $rotation at $row,$col", expected, output[i].toInt())
+      }
+    }
+  }
+}